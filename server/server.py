@@ -7,8 +7,8 @@ from urlparse import urlparse, parse_qs
 
 class AnswerRequestHandler(SimpleHTTPServer.SimpleHTTPRequestHandler):
 
-    # TODO: Consider loading the NHS data only once when the server starts.
-    #       As of now, the data has to be loaded again at each request.
+    # NOTE: The data has to be loaded again at each request here.
+    #       Use com.mikhail_dubov.nhs.AnswerServer to load it only once.
 
     def do_GET(self):
         request = urlparse(self.path)
@@ -32,5 +32,9 @@ class AnswerRequestHandler(SimpleHTTPServer.SimpleHTTPRequestHandler):
             self.wfile.write(output)
 
 
-server = SocketServer.TCPServer(("", 8080), AnswerRequestHandler)
+# NOTE: Deprecated, use com.mikhail_dubov.nhs.AnswerServer instead.
+#       Requests are at least handled in separate threads, so that one slow
+#       request (i.e. one JVM start) does not block all the others.
+SocketServer.ThreadingTCPServer.daemon_threads = True
+server = SocketServer.ThreadingTCPServer(("", 8080), AnswerRequestHandler)
 server.serve_forever()
@@ -0,0 +1,193 @@
+package com.mikhail_dubov.nhs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of requests processed at the same time, so that the service
+ * fails fast under load spikes instead of queuing the requests without bound.
+ *
+ * The requests beyond the concurrency limit wait in a bounded queue, and the ones
+ * that find the queue full (or wait for too long) are rejected. The limit adapts
+ * to the observed latency (AIMD): it grows by one every limit requests served within
+ * the target latency, and shrinks by 10% on every slower request.
+ *
+ * NOTE: A ReentrantLock rather than synchronized, so that the waiting virtual threads
+ *       do not pin their carrier threads.
+ *
+ * @author Mikhail Dubov
+ */
+public class AdmissionController {
+
+    private static final double DECREASE_FACTOR = 0.9;
+
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long targetLatencyNanos;
+    private final long maxWaitNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = this.lock.newCondition();
+    // All the following is guarded by the lock
+    private double limit;
+    private int inFlight = 0;
+    private int queued = 0;
+    private long admitted = 0;
+    private long shed = 0;
+
+    /**
+     * @param maxLimit Maximum number of requests processed at the same time
+     *                 (the adaptive limit starts there).
+     * @param maxQueue Maximum number of requests waiting to be processed (0 rejects the
+     *                 requests as soon as the limit is reached).
+     * @param targetLatencyMillis Processing time above which the limit is decreased.
+     * @param maxWaitMillis Maximum time a request may wait in the queue before being rejected.
+     */
+    public AdmissionController(int maxLimit, int maxQueue, long targetLatencyMillis, long maxWaitMillis) {
+        if (maxLimit <= 0 || maxQueue < 0) {
+            throw new IllegalArgumentException("The limit must be positive and the queue size non-negative");
+        }
+        this.maxLimit = maxLimit;
+        this.maxQueue = maxQueue;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.limit = maxLimit;
+    }
+
+    /**
+     * Admits a request, waiting in the queue if the limit is reached.
+     * Every admitted request must then call release().
+     *
+     * @return true if the request may be processed, false if it has been rejected.
+     * @throws InterruptedException If the thread was interrupted while waiting
+     *                              (the request is counted as rejected).
+     */
+    public boolean acquire() throws InterruptedException {
+        this.lock.lock();
+        try {
+            // NOTE: New requests do not overtake the waiting ones.
+            if (this.queued == 0 && this.inFlight < currentLimit()) {
+                this.inFlight++;
+                this.admitted++;
+                return true;
+            }
+            if (this.queued >= this.maxQueue) {
+                this.shed++;
+                return false;
+            }
+            this.queued++;
+            try {
+                long nanos = this.maxWaitNanos;
+                while (this.inFlight >= currentLimit()) {
+                    if (nanos <= 0) {
+                        this.shed++;
+                        return false;
+                    }
+                    try {
+                        nanos = this.permitReleased.awaitNanos(nanos);
+                    } catch (InterruptedException e) {
+                        // The request gets rejected all the same
+                        this.shed++;
+                        throw e;
+                    }
+                }
+            } finally {
+                this.queued--;
+            }
+            this.inFlight++;
+            this.admitted++;
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Ends an admitted request, adapting the limit to its processing time.
+     *
+     * @param latencyNanos How long the request took to process (excluding the wait in the queue).
+     */
+    public void release(long latencyNanos) {
+        this.lock.lock();
+        try {
+            this.inFlight--;
+            if (latencyNanos > this.targetLatencyNanos) {
+                this.limit = Math.max(1, this.limit * DECREASE_FACTOR);
+            } else {
+                this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+            }
+            // The limit may have grown, so wake up every request that may now proceed
+            int available = currentLimit() - this.inFlight;
+            for (int i = 0; i < available && i < this.queued; i++) {
+                this.permitReleased.signal();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private int currentLimit() {
+        return (int) this.limit;
+    }
+
+    /**
+     * @return The current concurrency limit.
+     */
+    public int getLimit() {
+        this.lock.lock();
+        try {
+            return currentLimit();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of requests being processed.
+     */
+    public int getInFlight() {
+        this.lock.lock();
+        try {
+            return this.inFlight;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of requests waiting in the queue.
+     */
+    public int getQueued() {
+        this.lock.lock();
+        try {
+            return this.queued;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of requests admitted so far.
+     */
+    public long getAdmitted() {
+        this.lock.lock();
+        try {
+            return this.admitted;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of requests rejected so far.
+     */
+    public long getShed() {
+        this.lock.lock();
+        try {
+            return this.shed;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.mikhail_dubov.nhs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class AdmissionControllerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(1);
+
+    private static int failures = 0;
+
+	/**
+	 * Checks that the requests beyond the limit wait in the queue, that the ones finding
+	 * the queue full or waiting for too long are rejected, and that the limit adapts
+	 * to the latency.
+	 */
+    public static void main(String[] args) throws InterruptedException {
+        // Shedding beyond the queue
+        final AdmissionController controller = new AdmissionController(2, 1, 100, 10000);
+        check("first request admitted", controller.acquire());
+        check("second request admitted", controller.acquire());
+        final AtomicBoolean waiterAdmitted = new AtomicBoolean();
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    waiterAdmitted.set(controller.acquire());
+                } catch (InterruptedException e) {
+                    // Reported as not admitted
+                }
+            }
+        });
+        waiter.start();
+        awaitQueued(controller, 1);
+        check("request beyond the queue rejected", ! controller.acquire());
+        check("one request rejected", controller.getShed() == 1);
+        controller.release(FAST);
+        waiter.join(10000);
+        check("queued request admitted on release", waiterAdmitted.get());
+        check("three requests admitted", controller.getAdmitted() == 3 && controller.getInFlight() == 2
+                                         && controller.getQueued() == 0);
+
+        // Interrupted wait
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    controller.acquire();
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+            }
+        });
+        waiter.start();
+        awaitQueued(controller, 1);
+        waiter.interrupt();
+        waiter.join(10000);
+        check("interrupted wait rejected", interrupted.get() && controller.getShed() == 2
+                                           && controller.getQueued() == 0);
+
+        // Queue timeout
+        AdmissionController timed = new AdmissionController(1, 5, 100, 200);
+        check("request admitted", timed.acquire());
+        long start = System.nanoTime();
+        check("request rejected after waiting", ! timed.acquire());
+        long waited = System.nanoTime() - start;
+        check("waited for the maximum wait (" + TimeUnit.NANOSECONDS.toMillis(waited) + " ms)",
+              waited >= TimeUnit.MILLISECONDS.toNanos(200) && waited < TimeUnit.SECONDS.toNanos(5));
+        check("timed out request rejected", timed.getShed() == 1 && timed.getQueued() == 0);
+
+        // Limit adaptation
+        AdmissionController adaptive = new AdmissionController(10, 0, 100, 0);
+        serve(adaptive, SLOW);
+        check("limit decreased by a slow request (" + adaptive.getLimit() + ")", adaptive.getLimit() == 9);
+        for (int i = 0; i < 100; i++) {
+            serve(adaptive, SLOW);
+        }
+        check("limit kept positive (" + adaptive.getLimit() + ")", adaptive.getLimit() == 1);
+        check("request admitted at the limit", adaptive.acquire());
+        check("request beyond the decreased limit rejected", ! adaptive.acquire());
+        adaptive.release(FAST);
+        check("limit increased by a fast request (" + adaptive.getLimit() + ")", adaptive.getLimit() == 2);
+        // 2, 2.5, 2.9, 3.24: about one more every limit requests
+        serve(adaptive, FAST);
+        serve(adaptive, FAST);
+        check("limit increased by less than one per fast request (" + adaptive.getLimit() + ")",
+              adaptive.getLimit() == 2);
+        serve(adaptive, FAST);
+        check("limit increased after limit fast requests (" + adaptive.getLimit() + ")",
+              adaptive.getLimit() == 3);
+        for (int i = 0; i < 1000; i++) {
+            serve(adaptive, FAST);
+        }
+        check("limit kept below the maximum (" + adaptive.getLimit() + ")", adaptive.getLimit() == 10);
+
+        System.out.println("Admission control checked, " + failures + " failures");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void serve(AdmissionController controller, long latencyNanos) throws InterruptedException {
+        if (controller.acquire()) {
+            controller.release(latencyNanos);
+        } else {
+            System.out.println("FAILED: request rejected while none is in flight");
+            failures++;
+        }
+    }
+
+    private static void awaitQueued(AdmissionController controller, int queued) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (controller.getQueued() != queued && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void check(String name, boolean ok) {
+        if (! ok) {
+            System.out.println("FAILED: " + name);
+            failures++;
+        }
+    }
+
+}
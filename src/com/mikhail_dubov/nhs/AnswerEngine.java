@@ -0,0 +1,291 @@
+package com.mikhail_dubov.nhs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Everything the Question Answerer derives from one version of the NHS data and of the
+ * stopwords: the data itself, the indexes and the cache of the answers.
+ *
+ * An engine is never modified once built, so that a new version of the data can be loaded
+ * into a new engine while the current one keeps serving, and then replace it at once
+ * (see QuestionAnswerer.reload()). The queries in progress finish on the engine they started on.
+ *
+ * @author Mikhail Dubov
+ */
+class AnswerEngine {
+
+    final JSONObject nhsData;
+    final Set<String> stopwords;
+    // Tokenization, stopwords filtering and stemming of the queries and keys
+    final Preprocessor preprocessor;
+    // Preprocessed JSON keys (conditions and their sections), computed once at load time
+    final Map<String, Set<String>> keyBags;
+    // Preprocessed condition names, as word sequences
+    final Map<String, List<String>> conditionTerms;
+    // Ids of all the terms of the keys and of the texts
+    final Vocabulary vocabulary;
+    // Inverted index from the key terms to the conditions and their sections
+    final KeyIndex conditionIndex;
+    // Automaton finding the condition names mentioned in the queries
+    final ConditionMatcher conditionMatcher;
+    // BM25 index over the texts, used when nothing matches in the keys
+    final BodyIndex bodyIndex;
+    // Suggestions of the condition and section names as the user types
+    final Autocompleter autocompleter;
+    // Typo correction of the query terms against the terms of the keys (null if disabled)
+    final SpellingCorrector spellingCorrector;
+    // Serialized responses, keyed by the normalized query (sorted ids of its terms)
+    final BoundedCache<byte[]> answerCache;
+    // Content hashes of the conditions, to find the ones that changed with the next version
+    // of the data (computed when first needed, guarded by this)
+    private Map<String, byte[]> conditionHashes;
+
+    /**
+     * Loads the NHS data and builds the indexes.
+     *
+     * @param dataPath Path to the NHS data, either in JSON format or as a binary snapshot.
+     * @param stopwordsPath Path to a text file containing English Stopwords.
+     * @param options Tuning options, e.g. for the memory usage or the caches.
+     * @param stemCache Cache of the word stems (they do not depend on the data,
+     *                  so the engines can share it).
+     * @throws FileNotFoundException If one of the files does not exist.
+     * @throws IOException If there were problems reading from the input files.
+     * @throws ParseException If the data is not a valid JSON string.
+     */
+    AnswerEngine(String dataPath, String stopwordsPath, AnswererOptions options, StemCache stemCache)
+            throws FileNotFoundException, IOException, ParseException {
+        this(null, dataPath, stopwordsPath, options, stemCache);
+    }
+
+    /**
+     * Loads a new version of the NHS data, re-indexing only the conditions that changed
+     * since the previous version: the conditions are compared by their names and by a hash
+     * of their content, and the preprocessed keys and texts, as well as the pre-serialized
+     * responses, of the unchanged ones are taken from the previous engine.
+     *
+     * NOTE: Only a new version in JSON format with the same stopwords is loaded this way,
+     *       a snapshot is already preprocessed and new stopwords change all the terms.
+     *
+     * @param previous The engine with the previous version of the data (null if none).
+     * @param dataPath Path to the NHS data, either in JSON format or as a binary snapshot.
+     * @param stopwordsPath Path to a text file containing English Stopwords.
+     * @param options Tuning options, e.g. for the memory usage or the caches
+     *                (the same as for the previous engine).
+     * @param stemCache Cache of the word stems (they do not depend on the data,
+     *                  so the engines can share it).
+     * @throws FileNotFoundException If one of the files does not exist.
+     * @throws IOException If there were problems reading from the input files.
+     * @throws ParseException If the data is not a valid JSON string.
+     */
+    AnswerEngine(AnswerEngine previous, String dataPath, String stopwordsPath,
+                 AnswererOptions options, StemCache stemCache)
+            throws FileNotFoundException, IOException, ParseException {
+        // Load the list of English stopwords, needed to process the queries
+        this.stopwords = Preprocessor.loadStopwords(stopwordsPath);
+        this.preprocessor = new Preprocessor(this.stopwords, options.getTokenizer(), stemCache);
+        this.answerCache = new BoundedCache<byte[]>(options.getAnswerCacheSize(),
+                                                    BoundedCache.EvictionPolicy.LRU);
+
+        CorpusSnapshot snapshot = null;
+        Set<String> unchanged = new HashSet<String>();
+        if (CorpusSnapshot.isSnapshot(dataPath)) {
+            // The snapshot already contains the preprocessed keys and texts
+            snapshot = CorpusSnapshot.read(dataPath, options.getMapTexts());
+            this.nhsData = snapshot.getData();
+            this.keyBags = snapshot.getKeyBags();
+            this.conditionTerms = snapshot.getConditionTerms();
+        } else {
+            // Load the NHS data that has been scraped earlier
+            JSONParser parser = new JSONParser();
+            Object obj = parser.parse(new FileReader(dataPath));
+            JSONObject data = (JSONObject) obj;
+
+            if (previous != null && ! previous.stopwords.equals(this.stopwords)) {
+                previous = null;
+            }
+            if (previous != null) {
+                // Keep the previous version of the unchanged conditions, so that they keep
+                // their pre-serialized responses (if they came from a snapshot).
+                // NOTE: The ones still read from a mapped snapshot are copied to the heap,
+                //       so that the new data does not depend on that file anymore.
+                Map<String, byte[]> hashes = hashConditions(data);
+                Map<String, byte[]> previousHashes = previous.getConditionHashes();
+                boolean materialize = isMaterialized(previous.nhsData);
+                this.nhsData = new JSONObject();
+                for (Object key : data.keySet()) {
+                    byte[] previousHash = previousHashes.get(key);
+                    if (previousHash != null && Arrays.equals(previousHash, hashes.get(key))) {
+                        unchanged.add((String) key);
+                        Object condition = previous.nhsData.get(key);
+                        if (condition instanceof MappedNode && ((MappedNode) condition).isMapped()) {
+                            condition = CorpusSnapshot.materialize((JSONObject) condition);
+                        }
+                        this.nhsData.put(key, condition);
+                    } else {
+                        JSONObject condition = (JSONObject) data.get(key);
+                        this.nhsData.put(key, materialize ? CorpusSnapshot.materialize(condition) : condition);
+                    }
+                }
+                this.conditionHashes = hashes;
+            } else {
+                this.nhsData = data;
+            }
+
+            // Preprocess all the keys the search may look at once and for all.
+            // NOTE: Section names like "Symptoms" are shared by many conditions,
+            //       so we index keys by their string value.
+            this.keyBags = new HashMap<String, Set<String>>();
+            this.conditionTerms = new HashMap<String, List<String>>();
+            for (Object condition : this.nhsData.keySet()) {
+                List<String> words = (previous != null) ? previous.conditionTerms.get(condition) : null;
+                if (words == null) {
+                    words = Collections.unmodifiableList(this.preprocessor.wordSequence((String) condition));
+                }
+                this.conditionTerms.put((String) condition, words);
+                if (! this.keyBags.containsKey(condition)) {
+                    this.keyBags.put((String) condition,
+                                     Collections.unmodifiableSet(new HashSet<String>(words)));
+                }
+                JSONObject sections = (JSONObject) this.nhsData.get(condition);
+                for (Object section : sections.keySet()) {
+                    indexKey((String) section, previous);
+                }
+            }
+        }
+        this.vocabulary = new Vocabulary();
+        for (Set<String> bag : this.keyBags.values()) {
+            this.vocabulary.addAll(bag);
+        }
+        this.conditionIndex = new KeyIndex(this.nhsData, this.keyBags, this.vocabulary, 2);
+        if (snapshot != null) {
+            this.bodyIndex = snapshot.getBodyIndex(this.conditionIndex, this.vocabulary);
+        } else if (previous != null) {
+            this.bodyIndex = BodyIndex.update(previous.bodyIndex, previous.conditionIndex, unchanged,
+                                              this.conditionIndex, this.preprocessor, this.vocabulary);
+        } else {
+            this.bodyIndex = BodyIndex.build(this.conditionIndex, this.preprocessor, this.vocabulary);
+        }
+        this.conditionMatcher = new ConditionMatcher(this.conditionIndex, this.conditionTerms,
+                                                     this.vocabulary);
+        this.autocompleter = Autocompleter.build(this.conditionIndex);
+        this.spellingCorrector = options.getSpellingCorrection()
+                                 ? SpellingCorrector.build(this.conditionIndex, this.keyBags) : null;
+    }
+
+    private void indexKey(String key, AnswerEngine previous) {
+        if (! this.keyBags.containsKey(key)) {
+            Set<String> bag = (previous != null) ? previous.keyBags.get(key) : null;
+            if (bag == null) {
+                bag = Collections.unmodifiableSet(this.preprocessor.bagOfWords(key));
+            }
+            this.keyBags.put(key, bag);
+        }
+    }
+
+    private synchronized Map<String, byte[]> getConditionHashes() throws IOException {
+        if (this.conditionHashes == null) {
+            this.conditionHashes = hashConditions(this.nhsData);
+        }
+        return this.conditionHashes;
+    }
+
+    /**
+     * @return SHA-256 hash of the content of every condition, by name.
+     */
+    private static Map<String, byte[]> hashConditions(JSONObject data) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        Map<String, byte[]> hashes = new HashMap<String, byte[]>(data.size() * 2);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+        for (Object key : data.keySet()) {
+            bytes.reset();
+            writeCanonical(data.get(key), out);
+            out.flush();
+            digest.update(bytes.toByteArray());
+            hashes.put((String) key, digest.digest());
+        }
+        return hashes;
+    }
+
+    /**
+     * Writes the value in JSON format with the fields of the objects sorted by name, so that
+     * the same content gives the same JSON whatever the order of the fields in the data file.
+     */
+    private static void writeCanonical(Object value, Writer out) throws IOException {
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            List<String> keys = new ArrayList<String>(map.size());
+            for (Object key : map.keySet()) {
+                keys.add(String.valueOf(key));
+            }
+            Collections.sort(keys);
+            out.write('{');
+            for (int i = 0; i < keys.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                JsonWriter.writeString(keys.get(i), out);
+                out.write(':');
+                writeCanonical(map.get(keys.get(i)), out);
+            }
+            out.write('}');
+        } else if (value instanceof List) {
+            out.write('[');
+            for (int i = 0; i < ((List<?>) value).size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeCanonical(((List<?>) value).get(i), out);
+            }
+            out.write(']');
+        } else {
+            JsonWriter.write(value, out);
+        }
+    }
+
+    /**
+     * @return true if the conditions of the data have pre-serialized responses (see MappedNode).
+     */
+    private static boolean isMaterialized(JSONObject data) {
+        for (Object condition : data.values()) {
+            return condition instanceof MappedNode;
+        }
+        return false;
+    }
+
+    /**
+     * Saves the NHS data together with the indexes into a binary snapshot.
+     *
+     * @param path Path to the snapshot file.
+     * @throws IOException If there were problems writing to the file.
+     */
+    void writeSnapshot(String path) throws IOException {
+        CorpusSnapshot.write(this.nhsData, this.keyBags, this.conditionTerms, this.bodyIndex, path);
+    }
+}
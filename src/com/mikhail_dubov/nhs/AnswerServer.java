@@ -0,0 +1,440 @@
+package com.mikhail_dubov.nhs;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ParseException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Long-lived HTTP service answering queries at /answer?q=... (or with the k best
+ * answers at /answer?q=...&k=..., or with only some fields of the answer and the texts
+ * cut at /answer?q=...&fields=URL,Symptoms&maxlen=...), suggesting the condition
+ * and section names starting with a prefix at /complete?q=... (at most n of them
+ * with &n=...) and reporting the cache and load statistics at /stats.
+ * A POST to /reload loads the NHS data again in the background, e.g. after the scraper
+ * has updated it, and the service switches to it without any downtime.
+ *
+ * Unlike the Python server that starts a new JVM for every request, this service
+ * loads the NHS data only once at startup and then serves all the requests
+ * concurrently from the same QuestionAnswerer instance.
+ *
+ * The connections are kept alive (HTTP/1.1) and multiplexed by the server on a single
+ * thread, and each request is handled on its own virtual thread when the JVM supports them
+ * (Java 21 and later), so thousands of concurrent clients take no OS thread each.
+ * On older JVMs, the requests are handled by pooled threads instead.
+ * The answers are subject to admission control (see AdmissionController): under load
+ * spikes, the requests beyond the queue are rejected with 503 and a Retry-After header,
+ * so the number of requests in progress or waiting (and of threads) stays bounded.
+ *
+ * @author Mikhail Dubov
+ */
+public class AnswerServer {
+
+    // Maximum number of connections waiting to be accepted
+    private static final int BACKLOG = 1024;
+    // Maximum number of idle keep-alive connections (200 by default in the JDK)
+    private static final int MAX_IDLE_CONNECTIONS = 10000;
+    // Default admission control: the concurrency limit per processor, the queue size,
+    // the target latency and the maximum wait in the queue (in milliseconds)
+    private static final int LIMIT_PER_PROCESSOR = 4;
+    private static final int MAX_QUEUE = 500;
+    private static final long TARGET_LATENCY_MILLIS = 100;
+    private static final long MAX_WAIT_MILLIS = 1000;
+    // Seconds after which a rejected client should retry
+    private static final int RETRY_AFTER_SECONDS = 1;
+    // Maximum number of ranked answers a client may ask for
+    private static final int MAX_ANSWERS = 100;
+
+    private QuestionAnswerer qa;
+    private HttpServer server;
+    private ExecutorService executor;
+    private AdmissionController admission;
+    // State of the reloads of the NHS data
+    private final AtomicBoolean reloading = new AtomicBoolean(false);
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong failedReloads = new AtomicLong();
+
+    /**
+     * Initializes the server (without starting it), handling each request on its own
+     * virtual thread if possible, and on pooled threads otherwise.
+     *
+     * @param qa The Question Answerer to serve the queries with.
+     * @param port Port to listen on.
+     * @throws IOException If the server socket could not be bound.
+     */
+    public AnswerServer(QuestionAnswerer qa, int port) throws IOException {
+        this(qa, port, newVirtualThreadExecutor(), defaultAdmissionController());
+    }
+
+    /**
+     * Initializes the server (without starting it), handling each request on its own
+     * virtual thread if possible, and on pooled threads otherwise.
+     *
+     * @param qa The Question Answerer to serve the queries with.
+     * @param port Port to listen on.
+     * @param admission Admission control of the answer requests.
+     * @throws IOException If the server socket could not be bound.
+     */
+    public AnswerServer(QuestionAnswerer qa, int port, AdmissionController admission) throws IOException {
+        this(qa, port, newVirtualThreadExecutor(), admission);
+    }
+
+    /**
+     * Initializes the server (without starting it).
+     *
+     * NOTE: The requests then first wait for a thread in an unbounded queue,
+     *       before the admission control.
+     *
+     * @param qa The Question Answerer to serve the queries with.
+     * @param port Port to listen on.
+     * @param threads Number of threads handling the requests.
+     * @throws IOException If the server socket could not be bound.
+     */
+    public AnswerServer(QuestionAnswerer qa, int port, int threads) throws IOException {
+        this(qa, port, Executors.newFixedThreadPool(threads), defaultAdmissionController());
+    }
+
+    private AnswerServer(QuestionAnswerer qa, int port, ExecutorService executor,
+                         AdmissionController admission) throws IOException {
+        if (executor == null) {
+            // The admission control bounds the number of threads busy with the requests
+            executor = Executors.newCachedThreadPool();
+        }
+        // NOTE: The JDK server reads this setting only once, when it is first used.
+        if (System.getProperty("sun.net.httpserver.maxIdleConnections") == null) {
+            System.setProperty("sun.net.httpserver.maxIdleConnections",
+                               String.valueOf(MAX_IDLE_CONNECTIONS));
+        }
+        this.qa = qa;
+        this.admission = admission;
+        this.server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        this.server.createContext("/answer", new AnswerHandler());
+        this.server.createContext("/complete", new CompleteHandler());
+        this.server.createContext("/stats", new StatsHandler());
+        this.server.createContext("/reload", new ReloadHandler());
+        this.executor = executor;
+        this.server.setExecutor(this.executor);
+    }
+
+    private static AdmissionController defaultAdmissionController() {
+        int maxLimit = LIMIT_PER_PROCESSOR * Runtime.getRuntime().availableProcessors();
+        return new AdmissionController(maxLimit, MAX_QUEUE, TARGET_LATENCY_MILLIS, MAX_WAIT_MILLIS);
+    }
+
+    /**
+     * @return An executor starting a new virtual thread for each task,
+     *         or null if the JVM does not support virtual threads.
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        // NOTE: Called by reflection, so that the server still builds and runs on older JVMs.
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            // E.g. a preview feature that is not enabled
+            return null;
+        }
+    }
+
+    /**
+     * Starts serving the requests in background threads.
+     */
+    public void start() {
+        this.server.start();
+    }
+
+    /**
+     * Stops the server, waiting at most the given number of seconds
+     * for the in-flight requests to complete.
+     */
+    public void stop(int delaySeconds) {
+        this.server.stop(delaySeconds);
+        this.executor.shutdown();
+    }
+
+    private class AnswerHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            boolean admitted;
+            try {
+                admitted = admission.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                admitted = false;
+            }
+            if (! admitted) {
+                try {
+                    exchange.getResponseHeaders().set("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+                    send(exchange, 503, "The service is overloaded, please retry later");
+                } finally {
+                    exchange.close();
+                }
+                return;
+            }
+            try {
+                Reply reply;
+                long start = System.nanoTime();
+                try {
+                    reply = answer(exchange);
+                } finally {
+                    // NOTE: Only the computation is timed, so that slow clients
+                    //       do not make the limit shrink.
+                    admission.release(System.nanoTime() - start);
+                }
+                send(exchange, reply.status, reply.body);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private Reply answer(HttpExchange exchange) throws IOException {
+            try {
+                String query = getParameter(exchange.getRequestURI().getRawQuery(), "q");
+                if (query == null) {
+                    return new Reply(400, "Missing query parameter 'q'");
+                }
+                String k = getParameter(exchange.getRequestURI().getRawQuery(), "k");
+                String fields = getParameter(exchange.getRequestURI().getRawQuery(), "fields");
+                String maxLength = getParameter(exchange.getRequestURI().getRawQuery(), "maxlen");
+                if (fields != null || maxLength != null) {
+                    if (k != null) {
+                        return new Reply(400, "Parameters 'fields' and 'maxlen' cannot be used with 'k'");
+                    }
+                    Projection projection = new Projection();
+                    if (fields != null) {
+                        projection.setFields(Arrays.asList(fields.split(",")));
+                    }
+                    if (maxLength != null) {
+                        int maxTextLength = parsePositive(maxLength);
+                        if (maxTextLength <= 0) {
+                            return new Reply(400, "Parameter 'maxlen' must be a positive number");
+                        }
+                        projection.setMaxTextLength(maxTextLength);
+                    }
+                    return new Reply(200, qa.answerJson(query, projection));
+                }
+                if (k == null) {
+                    return new Reply(200, qa.answerJson(query));
+                }
+                int numAnswers = parsePositive(k);
+                if (numAnswers <= 0 || numAnswers > MAX_ANSWERS) {
+                    return new Reply(400, "Parameter 'k' must be a number between 1 and " + MAX_ANSWERS);
+                }
+                return new Reply(200, JSONValue.toJSONString(qa.answer(query, numAnswers)));
+            } catch (RuntimeException e) {
+                return new Reply(500, "Internal error");
+            }
+        }
+    }
+
+    /**
+     * Status and body of a response, computed before it gets sent.
+     */
+    private static class Reply {
+        final int status;
+        final byte[] body;
+
+        Reply(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        Reply(int status, String body) throws UnsupportedEncodingException {
+            this(status, body.getBytes("UTF-8"));
+        }
+    }
+
+    /**
+     * Suggests the names starting with the prefix, as a JSON array.
+     */
+    private class CompleteHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String prefix = getParameter(exchange.getRequestURI().getRawQuery(), "q");
+                if (prefix == null) {
+                    send(exchange, 400, "Missing query parameter 'q'");
+                    return;
+                }
+                String n = getParameter(exchange.getRequestURI().getRawQuery(), "n");
+                int numSuggestions = (n == null) ? Autocompleter.MAX_COMPLETIONS : parsePositive(n);
+                if (numSuggestions <= 0) {
+                    send(exchange, 400, "Parameter 'n' must be a positive number");
+                    return;
+                }
+                send(exchange, 200, JSONValue.toJSONString(qa.complete(prefix, numSuggestions)));
+            } catch (RuntimeException e) {
+                send(exchange, 500, "Internal error");
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Starts reloading the NHS data in the background (see QuestionAnswerer.reload()).
+     * The current data keeps serving the queries until the new one is ready.
+     */
+    private class ReloadHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (! "POST".equals(exchange.getRequestMethod())) {
+                    exchange.getResponseHeaders().set("Allow", "POST");
+                    send(exchange, 405, "Use POST to reload the data");
+                    return;
+                }
+                if (! reloading.compareAndSet(false, true)) {
+                    send(exchange, 409, "The data is already being reloaded");
+                    return;
+                }
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            qa.reload();
+                            reloads.incrementAndGet();
+                        } catch (Exception e) {
+                            failedReloads.incrementAndGet();
+                            System.err.println("Failed to reload the data: " + e);
+                        } finally {
+                            reloading.set(false);
+                        }
+                    }
+                }, "reload");
+                thread.setDaemon(true);
+                thread.start();
+                send(exchange, 202, "Reloading the data");
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Reports the cache, admission control and reload statistics in JSON format.
+     */
+    private class StatsHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                JSONObject stats = new JSONObject();
+                stats.put("stemCache", cacheStats(qa.getStemCache()));
+                stats.put("answerCache", cacheStats(qa.getAnswerCache()));
+                stats.put("admission", admissionStats());
+                JSONObject reload = new JSONObject();
+                reload.put("inProgress", reloading.get());
+                reload.put("completed", reloads.get());
+                reload.put("failed", failedReloads.get());
+                stats.put("reload", reload);
+                send(exchange, 200, stats.toString());
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private JSONObject admissionStats() {
+            JSONObject stats = new JSONObject();
+            stats.put("limit", admission.getLimit());
+            stats.put("inFlight", admission.getInFlight());
+            stats.put("queued", admission.getQueued());
+            stats.put("admitted", admission.getAdmitted());
+            stats.put("shed", admission.getShed());
+            return stats;
+        }
+
+        private JSONObject cacheStats(BoundedCache<?> cache) {
+            JSONObject stats = new JSONObject();
+            stats.put("size", cache.size());
+            stats.put("hits", cache.getHits());
+            stats.put("misses", cache.getMisses());
+            stats.put("hitRate", cache.getHitRate());
+            return stats;
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        send(exchange, status, body.getBytes("UTF-8"));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] bytes) throws IOException {
+        // NOTE: "text/json" is kept for compatibility with the Python server.
+        exchange.getResponseHeaders().set("Content-type", status == 200 ? "text/json" : "text/plain");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    /**
+     * @return The value of the parameter as a number, or 0 if it is not a number.
+     */
+    private static int parsePositive(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Extracts a parameter from the raw (URL-encoded) query string, e.g. "q=treatments+for+allergy".
+     *
+     * @return The decoded value of the first occurrence of the parameter, or null if absent.
+     */
+    static String getParameter(String rawQuery, String name) throws UnsupportedEncodingException {
+        if (rawQuery == null) {
+            return null;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = (eq >= 0) ? pair.substring(0, eq) : pair;
+            if (URLDecoder.decode(key, "UTF-8").equals(name)) {
+                return (eq >= 0) ? URLDecoder.decode(pair.substring(eq + 1), "UTF-8") : "";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts the service. Takes the paths to the NHS data and the stopwords list as
+     * its first two arguments, and optionally the port (8080 by default) and the number
+     * of worker threads (by default, a virtual thread per request if the JVM supports them,
+     * and otherwise pooled threads).
+     */
+    public static void main(String[] args) throws FileNotFoundException, IOException, ParseException {
+        int port = (args.length > 2) ? Integer.parseInt(args[2]) : 8080;
+        // The server only serializes the answers, so the texts can stay in the mapped snapshot
+        QuestionAnswerer qa = new QuestionAnswerer(args[0], args[1],
+                                                   new AnswererOptions().setMapTexts(true));
+        AnswerServer server = (args.length > 3) ? new AnswerServer(qa, port, Integer.parseInt(args[3]))
+                                                : new AnswerServer(qa, port);
+        server.start();
+        System.out.println("Listening on port " + port);
+    }
+}
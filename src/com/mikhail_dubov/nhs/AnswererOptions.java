@@ -0,0 +1,114 @@
+package com.mikhail_dubov.nhs;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Tuning options of the Question Answerer. The defaults are suitable for most uses.
+ *
+ * @author Mikhail Dubov
+ */
+public class AnswererOptions {
+
+    private boolean mapTexts = false;
+    private int stemCacheSize = 50000;
+    private BoundedCache.EvictionPolicy stemCachePolicy = BoundedCache.EvictionPolicy.LRU;
+    private Tokenizer tokenizer = new CoreNlpTokenizer();
+    private int answerCacheSize = 1000;
+    private boolean spellingCorrection = true;
+    private ExecutorService batchExecutor = null;
+
+    /**
+     * @param mapTexts If true and the data is a snapshot, the texts of the subsections stay
+     *                 in the memory-mapped file and are decoded only when the answers get
+     *                 serialized (they are then MappedText values instead of Strings).
+     *                 This takes several times less heap memory. False by default.
+     */
+    public AnswererOptions setMapTexts(boolean mapTexts) {
+        this.mapTexts = mapTexts;
+        return this;
+    }
+
+    public boolean getMapTexts() {
+        return this.mapTexts;
+    }
+
+    /**
+     * @param stemCacheSize Maximum number of words in the stem cache (0 disables it).
+     */
+    public AnswererOptions setStemCacheSize(int stemCacheSize) {
+        this.stemCacheSize = stemCacheSize;
+        return this;
+    }
+
+    public int getStemCacheSize() {
+        return this.stemCacheSize;
+    }
+
+    /**
+     * @param stemCachePolicy Eviction policy of the stem cache (LRU by default).
+     */
+    public AnswererOptions setStemCachePolicy(BoundedCache.EvictionPolicy stemCachePolicy) {
+        this.stemCachePolicy = stemCachePolicy;
+        return this;
+    }
+
+    public BoundedCache.EvictionPolicy getStemCachePolicy() {
+        return this.stemCachePolicy;
+    }
+
+    /**
+     * @param tokenizer Tokenizer for the queries and the keys. CoreNlpTokenizer by default;
+     *                  FastTokenizer is much faster and does not need the CoreNLP library.
+     *                  NOTE: Snapshots store preprocessed keys, so they should be built
+     *                        with the same tokenizer.
+     */
+    public AnswererOptions setTokenizer(Tokenizer tokenizer) {
+        this.tokenizer = tokenizer;
+        return this;
+    }
+
+    public Tokenizer getTokenizer() {
+        return this.tokenizer;
+    }
+
+    /**
+     * @param answerCacheSize Maximum number of serialized answers in the answer cache
+     *                        (0 disables it).
+     */
+    public AnswererOptions setAnswerCacheSize(int answerCacheSize) {
+        this.answerCacheSize = answerCacheSize;
+        return this;
+    }
+
+    public int getAnswerCacheSize() {
+        return this.answerCacheSize;
+    }
+
+    /**
+     * @param spellingCorrection If true, the query terms that appear nowhere in the NHS data
+     *                           are replaced by the closest terms of the keys, e.g. "symptons"
+     *                           is understood as "symptoms". True by default.
+     */
+    public AnswererOptions setSpellingCorrection(boolean spellingCorrection) {
+        this.spellingCorrection = spellingCorrection;
+        return this;
+    }
+
+    public boolean getSpellingCorrection() {
+        return this.spellingCorrection;
+    }
+
+    /**
+     * @param batchExecutor Pool of threads answering the queries of answerAll(), e.g. a ForkJoinPool.
+     *                      By default, a ForkJoinPool with one thread per processor is created
+     *                      when answerAll() is first called.
+     */
+    public AnswererOptions setBatchExecutor(ExecutorService batchExecutor) {
+        this.batchExecutor = batchExecutor;
+        return this;
+    }
+
+    public ExecutorService getBatchExecutor() {
+        return this.batchExecutor;
+    }
+}
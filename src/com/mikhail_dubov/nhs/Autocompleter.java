@@ -0,0 +1,206 @@
+package com.mikhail_dubov.nhs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Suggests the names of the conditions and of their sections starting with a prefix,
+ * e.g. "oesophageal cancer" and "oesophageal atresia" for "oesoph", as the user types.
+ *
+ * The names are stored in a character trie (case-insensitive), and the best completions
+ * of every prefix are computed at load time, so a suggestion only takes one step per
+ * character of the prefix. The names are ranked by their popularity, i.e. by the number
+ * of nodes of the NHS data having this name (a section name like "Symptoms" is shared
+ * by many conditions), then the shorter names first.
+ *
+ * NOTE: The names of the conditions come before the names of the sections, whatever their
+ *       popularity, as the users mostly look for a condition: "dia" suggests "Diabetes"
+ *       before "Diagnosis", although "Diagnosis" is a section of hundreds of conditions.
+ *
+ * @author Mikhail Dubov
+ */
+class Autocompleter {
+
+    // Maximum number of completions kept for each prefix
+    static final int MAX_COMPLETIONS = 10;
+
+    // Names, from the most popular one
+    private final String[] names;
+    // Transitions of the trie: the (lowercase) characters leading out of each state
+    // (sorted) and the states they lead to. The root is the state 0.
+    private final char[][] childChars;
+    private final int[][] childStates;
+    // Best completions of each state, as positions in names (in increasing order).
+    // NOTE: A state often has the same completions as its parent, e.g. in the middle
+    //       of a long name, so they share the array.
+    private final int[][] completions;
+
+    /**
+     * Builds the trie.
+     *
+     * @param popularities The names to suggest, with their popularities (the higher the better).
+     */
+    Autocompleter(final Map<String, Integer> popularities) {
+        List<String> ranked = new ArrayList<String>(popularities.keySet());
+        Collections.sort(ranked, new Comparator<String>() {
+            @Override
+            public int compare(String name1, String name2) {
+                int popularity1 = popularities.get(name1);
+                int popularity2 = popularities.get(name2);
+                if (popularity1 != popularity2) {
+                    return (popularity1 > popularity2) ? -1 : 1;
+                }
+                if (name1.length() != name2.length()) {
+                    return name1.length() - name2.length();
+                }
+                return name1.compareTo(name2);
+            }
+        });
+        this.names = ranked.toArray(new String[ranked.size()]);
+
+        // Insert the names from the most popular one, so that the first names
+        // reaching a state are also its best completions.
+        Map<Long, Integer> transitions = new HashMap<Long, Integer>();
+        List<Integer> parents = new ArrayList<Integer>();
+        List<int[]> lists = new ArrayList<int[]>();
+        List<Integer> listSizes = new ArrayList<Integer>();
+        parents.add(-1);
+        lists.add(new int[MAX_COMPLETIONS]);
+        listSizes.add(0);
+        for (int rank = 0; rank < this.names.length; rank++) {
+            String name = normalize(this.names[rank]);
+            int state = 0;
+            for (int i = 0; ; i++) {
+                int size = listSizes.get(state);
+                if (size < MAX_COMPLETIONS) {
+                    lists.get(state)[size] = rank;
+                    listSizes.set(state, size + 1);
+                }
+                if (i == name.length()) {
+                    break;
+                }
+                long transition = ((long) state << 16) | name.charAt(i);
+                Integer next = transitions.get(transition);
+                if (next == null) {
+                    next = parents.size();
+                    transitions.put(transition, next);
+                    parents.add(state);
+                    lists.add(new int[MAX_COMPLETIONS]);
+                    listSizes.add(0);
+                }
+                state = next;
+            }
+        }
+
+        int numStates = parents.size();
+        this.completions = new int[numStates][];
+        for (int state = 0; state < numStates; state++) {
+            // Parents are always created before their children
+            int[] list = Arrays.copyOf(lists.get(state), listSizes.get(state));
+            int parent = parents.get(state);
+            this.completions[state] = (parent >= 0 && Arrays.equals(list, this.completions[parent]))
+                                      ? this.completions[parent] : list;
+        }
+        int[] numChildren = new int[numStates];
+        for (int state = 1; state < numStates; state++) {
+            numChildren[parents.get(state)]++;
+        }
+        this.childChars = new char[numStates][];
+        this.childStates = new int[numStates][];
+        for (int state = 0; state < numStates; state++) {
+            this.childChars[state] = new char[numChildren[state]];
+            this.childStates[state] = new int[numChildren[state]];
+            numChildren[state] = 0;
+        }
+        // Sort the transitions by character, so that they can be binary-searched
+        List<Long> sortedTransitions = new ArrayList<Long>(transitions.keySet());
+        Collections.sort(sortedTransitions);
+        for (long transition : sortedTransitions) {
+            int parent = (int) (transition >>> 16);
+            int child = numChildren[parent]++;
+            this.childChars[parent][child] = (char) transition;
+            this.childStates[parent][child] = transitions.get(transition);
+        }
+    }
+
+    /**
+     * Builds the autocompleter for the names of the conditions and of their sections.
+     *
+     * @param conditionIndex The index over the conditions (with their sections) of the NHS data.
+     */
+    static Autocompleter build(KeyIndex conditionIndex) {
+        // NOTE: Names differing only in case are suggested once, as they are first written.
+        Map<String, String> spellings = new HashMap<String, String>();
+        Map<String, Integer> popularities = new LinkedHashMap<String, Integer>();
+        // A condition weighs more than all the sections together, so that any condition name
+        // is more popular than any section name
+        int conditionWeight = 1;
+        for (int condition = 0; condition < conditionIndex.size(); condition++) {
+            KeyIndex sections = conditionIndex.child(condition);
+            for (int section = 0; sections != null && section < sections.size(); section++) {
+                count(sections.key(section), 1, spellings, popularities);
+                conditionWeight++;
+            }
+        }
+        for (int condition = 0; condition < conditionIndex.size(); condition++) {
+            count(conditionIndex.key(condition), conditionWeight, spellings, popularities);
+        }
+        return new Autocompleter(popularities);
+    }
+
+    private static void count(String name, int weight, Map<String, String> spellings,
+                              Map<String, Integer> popularities) {
+        String normalized = normalize(name);
+        if (normalized.isEmpty()) {
+            return;
+        }
+        String spelling = spellings.get(normalized);
+        if (spelling == null) {
+            spellings.put(normalized, name);
+            popularities.put(name, weight);
+        } else {
+            popularities.put(spelling, popularities.get(spelling) + weight);
+        }
+    }
+
+    private static String normalize(String str) {
+        return str.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Suggests the names starting with the prefix (ignoring the case), the most popular first.
+     *
+     * @param prefix What the user has typed so far, e.g. "oesoph".
+     * @param n Maximum number of suggestions, at most MAX_COMPLETIONS.
+     * @return Up to n names, empty if no name starts with the prefix.
+     */
+    List<String> complete(String prefix, int n) {
+        // NOTE: Only the leading spaces are ignored, the trailing ones end a word.
+        int start = 0;
+        while (start < prefix.length() && Character.isWhitespace(prefix.charAt(start))) {
+            start++;
+        }
+        String normalized = prefix.substring(start).toLowerCase(Locale.ROOT);
+        int state = 0;
+        for (int i = 0; i < normalized.length(); i++) {
+            int child = Arrays.binarySearch(this.childChars[state], normalized.charAt(i));
+            if (child < 0) {
+                return Collections.emptyList();
+            }
+            state = this.childStates[state][child];
+        }
+        int[] ranks = this.completions[state];
+        List<String> suggestions = new ArrayList<String>(Math.min(n, ranks.length));
+        for (int i = 0; i < ranks.length && i < n; i++) {
+            suggestions.add(this.names[ranks[i]]);
+        }
+        return suggestions;
+    }
+}
@@ -0,0 +1,83 @@
+package com.mikhail_dubov.nhs;
+
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class AutocompleterTest {
+
+    private static int failures = 0;
+
+	/**
+	 * Checks that the suggestions start with the prefix, that the names of the conditions
+	 * come before the names of the sections, and that every condition can be completed.
+	 */
+    public static void main(String[] args) throws FileNotFoundException, IOException, ParseException {
+        JSONObject data = (JSONObject) new JSONParser().parse(new FileReader("data/data.json"));
+        Set<String> conditions = new HashSet<String>();
+        for (Object condition : data.keySet()) {
+            conditions.add(((String) condition).trim().toLowerCase(Locale.ROOT));
+        }
+
+        QuestionAnswerer qa = new QuestionAnswerer("data/data.json", "data/stopwords.txt");
+        check("oesoph", qa.complete("oesoph", 10),
+              Arrays.asList("Oesophageal cancer", "Oesophageal atresia and tracheoesophageal fistula"));
+        check("  OESOPH", qa.complete("  OESOPH", 10), qa.complete("oesoph", 10));
+        check("oesoph (n = 1)", qa.complete("oesoph", 1), Arrays.asList("Oesophageal cancer"));
+        check("xqzw", qa.complete("xqzw", 10), Arrays.<String>asList());
+        if (! qa.complete("living", 10).contains("Living with")) {
+            System.out.println("FAILED: \"living\": the section \"Living with\" is not suggested");
+            failures++;
+        }
+
+        int numPrefixes = 0;
+        for (String prefix : new String[] {"", "a", "c", "co", "d", "dia", "s", "sy", "symptoms", "t"}) {
+            List<String> suggestions = qa.complete(prefix, Autocompleter.MAX_COMPLETIONS);
+            boolean sectionSeen = false;
+            for (String suggestion : suggestions) {
+                String normalized = suggestion.toLowerCase(Locale.ROOT);
+                if (! normalized.startsWith(prefix)) {
+                    System.out.println("FAILED: \"" + prefix + "\": \"" + suggestion + "\" does not match");
+                    failures++;
+                }
+                if (! conditions.contains(normalized)) {
+                    sectionSeen = true;
+                } else if (sectionSeen) {
+                    System.out.println("FAILED: \"" + prefix + "\": the condition \"" + suggestion
+                                       + "\" comes after a section in " + suggestions);
+                    failures++;
+                }
+            }
+            numPrefixes++;
+        }
+        for (String condition : conditions) {
+            List<String> suggestions = qa.complete(condition, Autocompleter.MAX_COMPLETIONS);
+            if (suggestions.isEmpty() || ! suggestions.get(0).toLowerCase(Locale.ROOT).equals(condition)) {
+                System.out.println("FAILED: \"" + condition + "\" is not completed first: " + suggestions);
+                failures++;
+            }
+            numPrefixes++;
+        }
+        System.out.println(numPrefixes + " prefixes checked, " + failures + " failures");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void check(String prefix, List<String> actual, List<String> expected) {
+        if (! actual.equals(expected)) {
+            System.out.println("FAILED: \"" + prefix + "\": expected " + expected + ", got " + actual);
+            failures++;
+        }
+    }
+
+}
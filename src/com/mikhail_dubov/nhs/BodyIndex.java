@@ -0,0 +1,414 @@
+package com.mikhail_dubov.nhs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Full-text index over the texts of the NHS pages, i.e. the third level of the JSON tree,
+ * ranking the pages with BM25. Each page (a section of a condition) is one document.
+ *
+ * Unlike KeyIndex, it looks at the values rather than at the keys, so it can answer queries
+ * like "itchy red rash after eating nuts" whose words do not appear in any key.
+ *
+ * @author Mikhail Dubov
+ */
+class BodyIndex {
+
+    // Standard BM25 parameters
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    // Documents, in the order of the traversal of the condition index
+    private final int[] docConditions;
+    private final int[] docSections;
+    private final int[] docLengths;
+    // Per-document part of the BM25 denominator, K1 * (1 - B + B * length / avgLength)
+    private final float[] docNorms;
+    // Postings: term id -> documents containing it, and the term frequencies in them
+    private final int[][] postingDocs;
+    private final int[][] postingFreqs;
+    private final Vocabulary vocabulary;
+
+    /**
+     * Creates the index from precomputed postings (e.g. loaded from a snapshot).
+     *
+     * @param conditionIndex The index over the conditions (with their sections) of the NHS data.
+     * @param docLengths Number of terms in each document.
+     * @param postingDocs Documents containing each term, in increasing order.
+     * @param postingFreqs Frequencies of each term in the documents from postingDocs.
+     * @param vocabulary Ids of the terms, the terms of the texts get added to it.
+     */
+    BodyIndex(KeyIndex conditionIndex, int[] docLengths, Map<String, int[]> postingDocs,
+              Map<String, int[]> postingFreqs, Vocabulary vocabulary) {
+        List<int[]> docs = listDocuments(conditionIndex);
+        if (docs.size() != docLengths.length) {
+            throw new IllegalArgumentException("The body index does not match the NHS data");
+        }
+        this.docConditions = new int[docs.size()];
+        this.docSections = new int[docs.size()];
+        for (int doc = 0; doc < docs.size(); doc++) {
+            this.docConditions[doc] = docs.get(doc)[0];
+            this.docSections[doc] = docs.get(doc)[1];
+        }
+        this.docLengths = docLengths;
+        long totalLength = 0;
+        for (int length : docLengths) {
+            totalLength += length;
+        }
+        float avgLength = (docLengths.length > 0) ? (float) totalLength / docLengths.length : 1;
+        this.docNorms = new float[docLengths.length];
+        for (int doc = 0; doc < docLengths.length; doc++) {
+            this.docNorms[doc] = K1 * (1 - B + B * docLengths[doc] / avgLength);
+        }
+        vocabulary.addAll(postingDocs.keySet());
+        this.vocabulary = vocabulary;
+        this.postingDocs = new int[vocabulary.size()][];
+        this.postingFreqs = new int[vocabulary.size()][];
+        for (Map.Entry<String, int[]> entry : postingDocs.entrySet()) {
+            int term = vocabulary.id(entry.getKey());
+            this.postingDocs[term] = entry.getValue();
+            this.postingFreqs[term] = postingFreqs.get(entry.getKey());
+        }
+    }
+
+    /**
+     * Builds the index, preprocessing all the texts of the NHS data.
+     *
+     * @param conditionIndex The index over the conditions (with their sections) of the NHS data.
+     * @param preprocessor Preprocessor to extract the terms from the texts.
+     * @param vocabulary Ids of the terms, the terms of the texts get added to it.
+     */
+    static BodyIndex build(KeyIndex conditionIndex, Preprocessor preprocessor, Vocabulary vocabulary) {
+        return update(null, null, Collections.<String>emptySet(), conditionIndex, preprocessor, vocabulary);
+    }
+
+    /**
+     * Builds the index for a new version of the NHS data, preprocessing only the texts
+     * of the conditions that changed: the terms of the other documents are taken from
+     * the previous index instead.
+     *
+     * @param previous The index over the previous version of the data (null if none).
+     * @param previousIndex The index over the conditions of the previous version of the data.
+     * @param unchanged Names of the conditions whose content did not change.
+     * @param conditionIndex The index over the conditions (with their sections) of the new data.
+     * @param preprocessor Preprocessor to extract the terms from the texts.
+     * @param vocabulary Ids of the terms, the terms of the texts get added to it.
+     */
+    static BodyIndex update(BodyIndex previous, KeyIndex previousIndex, Set<String> unchanged,
+                            KeyIndex conditionIndex, Preprocessor preprocessor, Vocabulary vocabulary) {
+        List<int[]> docs = listDocuments(conditionIndex);
+        // The previous documents to take the terms from (-1 for the new ones)
+        int[] previousDocs = new int[docs.size()];
+        Arrays.fill(previousDocs, -1);
+        if (previous != null && ! unchanged.isEmpty()) {
+            mapDocuments(previous, previousIndex, unchanged, conditionIndex, docs, previousDocs);
+        }
+        DocumentTerms previousTerms = (previous != null) ? new DocumentTerms(previous) : null;
+        int[] docLengths = new int[docs.size()];
+        // Terms get dense ids, so that the frequencies can be counted in arrays
+        Map<String, Integer> termIds = new HashMap<String, Integer>();
+        List<IntList> docLists = new ArrayList<IntList>();
+        List<IntList> freqLists = new ArrayList<IntList>();
+        // NOTE: Many texts are shared by several conditions, so we preprocess each only once.
+        Map<String, int[]> textTerms = new HashMap<String, int[]>();
+        int[] freqs = new int[1024];
+        int[] docTerms = new int[1024];
+        for (int doc = 0; doc < docs.size(); doc++) {
+            if (previousDocs[doc] >= 0) {
+                // Same text as before, so the same terms and frequencies
+                int previousDoc = previousDocs[doc];
+                for (int i = previousTerms.start[previousDoc]; i < previousTerms.start[previousDoc + 1]; i++) {
+                    String term = previous.vocabulary.term(previousTerms.terms[i]);
+                    Integer termId = termIds.get(term);
+                    if (termId == null) {
+                        termId = termIds.size();
+                        termIds.put(term, termId);
+                        docLists.add(new IntList());
+                        freqLists.add(new IntList());
+                    }
+                    docLists.get(termId).add(doc);
+                    freqLists.get(termId).add(previousTerms.freqs[i]);
+                }
+                docLengths[doc] = previous.docLengths[previousDoc];
+                continue;
+            }
+            if (freqs.length < termIds.size()) {
+                // The terms taken from the previous index got ids too
+                freqs = Arrays.copyOf(freqs, Math.max(freqs.length * 2, termIds.size()));
+            }
+            JSONObject page = section(conditionIndex, docs.get(doc)[0], docs.get(doc)[1]);
+            int numDocTerms = 0;
+            for (Object entry : page.entrySet()) {
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) entry;
+                if ("URL".equals(e.getKey())) {
+                    continue;
+                }
+                String text = e.getValue().toString();
+                int[] terms = textTerms.get(text);
+                if (terms == null) {
+                    List<String> words = preprocessor.terms(text);
+                    terms = new int[words.size()];
+                    for (int i = 0; i < terms.length; i++) {
+                        Integer termId = termIds.get(words.get(i));
+                        if (termId == null) {
+                            termId = termIds.size();
+                            termIds.put(words.get(i), termId);
+                            docLists.add(new IntList());
+                            freqLists.add(new IntList());
+                            if (termId == freqs.length) {
+                                freqs = Arrays.copyOf(freqs, freqs.length * 2);
+                            }
+                        }
+                        terms[i] = termId;
+                    }
+                    textTerms.put(text, terms);
+                }
+                for (int termId : terms) {
+                    if (freqs[termId]++ == 0) {
+                        if (numDocTerms == docTerms.length) {
+                            docTerms = Arrays.copyOf(docTerms, docTerms.length * 2);
+                        }
+                        docTerms[numDocTerms++] = termId;
+                    }
+                }
+                docLengths[doc] += terms.length;
+            }
+            for (int i = 0; i < numDocTerms; i++) {
+                int termId = docTerms[i];
+                docLists.get(termId).add(doc);
+                freqLists.get(termId).add(freqs[termId]);
+                freqs[termId] = 0;
+            }
+        }
+        Map<String, int[]> postingDocs = new HashMap<String, int[]>(termIds.size() * 2);
+        Map<String, int[]> postingFreqs = new HashMap<String, int[]>(termIds.size() * 2);
+        for (Map.Entry<String, Integer> entry : termIds.entrySet()) {
+            postingDocs.put(entry.getKey(), docLists.get(entry.getValue()).toArray());
+            postingFreqs.put(entry.getKey(), freqLists.get(entry.getValue()).toArray());
+        }
+        return new BodyIndex(conditionIndex, docLengths, postingDocs, postingFreqs, vocabulary);
+    }
+
+    /**
+     * Finds the documents of the new data that are in the previous index too, i.e. the sections
+     * of the unchanged conditions, by the names of their conditions and sections.
+     *
+     * @param previousDocs Output: the previous document of each new document (-1 if none).
+     */
+    private static void mapDocuments(BodyIndex previous, KeyIndex previousIndex, Set<String> unchanged,
+                                     KeyIndex conditionIndex, List<int[]> docs, int[] previousDocs) {
+        // NOTE: The positions change with the data, so the documents are matched by names.
+        Map<String, Integer> previousConditions = new HashMap<String, Integer>();
+        for (int condition = 0; condition < previousIndex.size(); condition++) {
+            if (unchanged.contains(previousIndex.key(condition))) {
+                previousConditions.put(previousIndex.key(condition), condition);
+            }
+        }
+        Map<Long, Integer> previousDocIds = new HashMap<Long, Integer>();
+        for (int doc = 0; doc < previous.docLengths.length; doc++) {
+            previousDocIds.put(((long) previous.docConditions[doc] << 32) | previous.docSections[doc], doc);
+        }
+        Map<String, Integer> previousSections = new HashMap<String, Integer>();
+        int currentCondition = -1;
+        Integer previousCondition = null;
+        for (int doc = 0; doc < docs.size(); doc++) {
+            int condition = docs.get(doc)[0];
+            if (condition != currentCondition) {
+                currentCondition = condition;
+                previousCondition = previousConditions.get(conditionIndex.key(condition));
+                previousSections.clear();
+                if (previousCondition != null) {
+                    KeyIndex sections = previousIndex.child(previousCondition);
+                    for (int section = 0; section < sections.size(); section++) {
+                        previousSections.put(sections.key(section), section);
+                    }
+                }
+            }
+            if (previousCondition == null) {
+                continue;
+            }
+            Integer previousSection = previousSections.get(conditionIndex.child(condition).key(docs.get(doc)[1]));
+            if (previousSection != null) {
+                Integer previousDoc = previousDocIds.get(((long) previousCondition << 32) | previousSection);
+                if (previousDoc != null) {
+                    previousDocs[doc] = previousDoc;
+                }
+            }
+        }
+    }
+
+    /**
+     * Terms of every document of an index with their frequencies, i.e. its postings inverted.
+     * The terms of the document d are terms[start[d]] to terms[start[d + 1] - 1].
+     */
+    private static class DocumentTerms {
+        final int[] start;
+        final int[] terms;
+        final int[] freqs;
+
+        DocumentTerms(BodyIndex index) {
+            int numDocs = index.docLengths.length;
+            this.start = new int[numDocs + 1];
+            for (int[] docs : index.postingDocs) {
+                for (int i = 0; docs != null && i < docs.length; i++) {
+                    this.start[docs[i] + 1]++;
+                }
+            }
+            for (int doc = 0; doc < numDocs; doc++) {
+                this.start[doc + 1] += this.start[doc];
+            }
+            this.terms = new int[this.start[numDocs]];
+            this.freqs = new int[this.start[numDocs]];
+            int[] next = Arrays.copyOf(this.start, numDocs);
+            for (int term = 0; term < index.postingDocs.length; term++) {
+                int[] docs = index.postingDocs[term];
+                for (int i = 0; docs != null && i < docs.length; i++) {
+                    this.terms[next[docs[i]]] = term;
+                    this.freqs[next[docs[i]]] = index.postingFreqs[term][i];
+                    next[docs[i]]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Growable array of ints, to avoid boxing while building the postings.
+     */
+    private static class IntList {
+        private int[] values = new int[4];
+        private int size = 0;
+
+        void add(int value) {
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.values[this.size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(this.values, this.size);
+        }
+    }
+
+    /**
+     * Lists the documents, i.e. the sections whose values are JSON objects,
+     * as pairs of (condition position, section position).
+     */
+    private static List<int[]> listDocuments(KeyIndex conditionIndex) {
+        List<int[]> docs = new ArrayList<int[]>();
+        for (int condition = 0; condition < conditionIndex.size(); condition++) {
+            KeyIndex sections = conditionIndex.child(condition);
+            if (sections == null) {
+                continue;
+            }
+            for (int section = 0; section < sections.size(); section++) {
+                if (sections.value(section) instanceof JSONObject) {
+                    docs.add(new int[] { condition, section });
+                }
+            }
+        }
+        return docs;
+    }
+
+    private static JSONObject section(KeyIndex conditionIndex, int condition, int section) {
+        return (JSONObject) conditionIndex.child(condition).value(section);
+    }
+
+    /**
+     * Finds the document that matches the terms best according to BM25.
+     *
+     * @param terms Ids of the terms extracted from the query, distinct.
+     * @return The best document, or -1 if no document contains any of the terms.
+     */
+    int bestMatch(int[] terms) {
+        float[] scores = scores(terms);
+        if (scores == null) {
+            return -1;
+        }
+        int best = -1;
+        for (int doc = 0; doc < scores.length; doc++) {
+            if (scores[doc] > 0 && (best == -1 || scores[doc] > scores[best])) {
+                best = doc;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Computes the BM25 scores of all the documents.
+     *
+     * @param terms Ids of the terms extracted from the query, distinct.
+     * @return The score of each document (0 if it contains none of the terms),
+     *         or null if no document contains any of the terms.
+     */
+    float[] scores(int[] terms) {
+        float[] scores = null;
+        for (int term : terms) {
+            int[] docs = this.postingDocs[term];
+            if (docs == null) {
+                continue;
+            }
+            if (scores == null) {
+                scores = new float[this.docLengths.length];
+            }
+            int[] freqs = this.postingFreqs[term];
+            float idf = idf(docs.length);
+            for (int i = 0; i < docs.length; i++) {
+                scores[docs[i]] += idf * freqs[i] * (K1 + 1) / (freqs[i] + this.docNorms[docs[i]]);
+            }
+        }
+        return scores;
+    }
+
+    private float idf(int docFreq) {
+        int numDocs = this.docLengths.length;
+        return (float) Math.log(1 + (numDocs - docFreq + 0.5) / (docFreq + 0.5));
+    }
+
+    /**
+     * @return Position of the condition of the document in the condition index.
+     */
+    int condition(int doc) {
+        return this.docConditions[doc];
+    }
+
+    /**
+     * @return Position of the section of the document in the index over the condition's sections.
+     */
+    int section(int doc) {
+        return this.docSections[doc];
+    }
+
+    int[] getDocLengths() {
+        return this.docLengths;
+    }
+
+    /**
+     * @return The documents containing each term, indexed by the term ids (null for the terms
+     *         of the vocabulary that appear in no text), e.g. to save them.
+     */
+    int[][] getPostingDocs() {
+        return this.postingDocs;
+    }
+
+    /**
+     * @return The frequencies of each term in the documents from getPostingDocs().
+     */
+    int[][] getPostingFreqs() {
+        return this.postingFreqs;
+    }
+
+    /**
+     * @return The term with the given id.
+     */
+    String term(int id) {
+        return this.vocabulary.term(id);
+    }
+}
@@ -0,0 +1,132 @@
+package com.mikhail_dubov.nhs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache with String keys that can be shared by many threads.
+ *
+ * To keep the contention low, the cache is split into independently locked segments,
+ * each of them evicting its own entries when full. Hits and misses are counted,
+ * so that the cache can be monitored and sized.
+ *
+ * @author Mikhail Dubov
+ */
+public class BoundedCache<V> {
+
+    /**
+     * Which entry to drop when the cache (more precisely, one of its segments) is full.
+     */
+    public enum EvictionPolicy {
+        /** Drop the least recently used entry. */
+        LRU,
+        /** Drop the oldest entry, regardless of how often it is used. */
+        FIFO
+    }
+
+    private static final int NUM_SEGMENTS = 16;
+
+    private final Segment<V>[] segments;
+    // NOTE: Every lookup updates a counter, so they must not become a point of contention
+    //       when many threads share the cache.
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxSize Maximum number of entries (0 disables the caching).
+     * @param policy Eviction policy to use when the cache is full.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BoundedCache(int maxSize, EvictionPolicy policy) {
+        this.segments = new Segment[NUM_SEGMENTS];
+        int segmentSize = (maxSize + NUM_SEGMENTS - 1) / NUM_SEGMENTS;
+        for (int i = 0; i < NUM_SEGMENTS; i++) {
+            this.segments[i] = new Segment<V>(segmentSize, policy == EvictionPolicy.LRU);
+        }
+    }
+
+    /**
+     * Looks up the key, counting a hit or a miss.
+     *
+     * @return The cached value, or null if the key is not in the cache.
+     */
+    public V get(String key) {
+        Segment<V> segment = segment(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value != null) {
+            this.hits.increment();
+        } else {
+            this.misses.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Adds an entry to the cache, possibly evicting another one.
+     */
+    public void put(String key, V value) {
+        Segment<V> segment = segment(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    /**
+     * @return Number of lookups that found the key in the cache.
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return Number of lookups that did not find the key in the cache.
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return Fraction of the lookups that were hits (0 if there were no lookups yet).
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return (total > 0) ? (double) hits / total : 0;
+    }
+
+    /**
+     * @return Number of entries currently in the cache.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment<V> segment(String key) {
+        return this.segments[(key.hashCode() & 0x7fffffff) % NUM_SEGMENTS];
+    }
+
+    private static class Segment<V> extends LinkedHashMap<String, V> {
+        private static final long serialVersionUID = 1L;
+        private final int maxSize;
+
+        Segment(int maxSize, boolean accessOrder) {
+            super(16, 0.75f, accessOrder);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > this.maxSize;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.mikhail_dubov.nhs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick automaton over the condition names, finding the conditions mentioned
+ * in a query in one left-to-right pass over its words.
+ *
+ * The symbols of the automaton are the ids of the stemmed words, so the names are matched
+ * as sequences of words: "What are the symptoms of oesophageal cancer?" mentions both "Cancer"
+ * and "Oesophageal cancer", and the longest mention is the one to answer about.
+ *
+ * @author Mikhail Dubov
+ */
+class ConditionMatcher {
+
+    // Transitions of the trie: the symbols leading out of each state (sorted)
+    // and the states they lead to. The root is the state 0.
+    private final int[][] childSymbols;
+    private final int[][] childStates;
+    // Failure links: the longest proper suffix of the state that is also a state
+    private final int[] fail;
+    // The longest condition name ending at each state (-1 if none), the condition
+    // to answer with when it is mentioned, and the number of its distinct words
+    private final int[] output;
+    private final int[] outputAnswer;
+    private final int[] outputWords;
+    // Conditions containing each term (null for the terms absent from the names)
+    private final KeyIndex conditionIndex;
+    private final int[][] termConditions;
+
+    /**
+     * Compiles the automaton.
+     *
+     * @param conditionIndex The index over the conditions of the NHS data.
+     * @param conditionTerms Word sequences (see Preprocessor.wordSequence()) of the condition names.
+     * @param vocabulary Ids of the terms, must contain all the terms of the condition names.
+     */
+    ConditionMatcher(KeyIndex conditionIndex, Map<String, List<String>> conditionTerms,
+                     Vocabulary vocabulary) {
+        this.conditionIndex = conditionIndex;
+        // Build the trie of the names first
+        Map<Long, Integer> transitions = new HashMap<Long, Integer>();
+        int numStates = 1;
+        int[] terminals = new int[conditionIndex.size()];
+        for (int condition = 0; condition < conditionIndex.size(); condition++) {
+            int state = 0;
+            for (String word : conditionTerms.get(conditionIndex.key(condition))) {
+                int symbol = vocabulary.id(word);
+                long transition = ((long) state << 32) | symbol;
+                Integer next = transitions.get(transition);
+                if (next == null) {
+                    next = numStates++;
+                    transitions.put(transition, next);
+                }
+                state = next;
+            }
+            terminals[condition] = state;
+        }
+        List<List<int[]>> children = new ArrayList<List<int[]>>(numStates);
+        for (int state = 0; state < numStates; state++) {
+            children.add(new ArrayList<int[]>(1));
+        }
+        for (Map.Entry<Long, Integer> entry : transitions.entrySet()) {
+            int parent = (int) (entry.getKey() >>> 32);
+            int symbol = (int) (long) entry.getKey();
+            children.get(parent).add(new int[] { symbol, entry.getValue() });
+        }
+        this.childSymbols = new int[numStates][];
+        this.childStates = new int[numStates][];
+        for (int state = 0; state < numStates; state++) {
+            List<int[]> list = children.get(state);
+            Collections.sort(list, new Comparator<int[]>() {
+                @Override
+                public int compare(int[] child1, int[] child2) {
+                    return child1[0] - child2[0];
+                }
+            });
+            this.childSymbols[state] = new int[list.size()];
+            this.childStates[state] = new int[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                this.childSymbols[state][i] = list.get(i)[0];
+                this.childStates[state][i] = list.get(i)[1];
+            }
+        }
+
+        this.termConditions = new int[vocabulary.size()][];
+        this.output = new int[numStates];
+        this.outputAnswer = new int[numStates];
+        this.outputWords = new int[numStates];
+        Arrays.fill(this.output, -1);
+        for (int condition = 0; condition < conditionIndex.size(); condition++) {
+            int[] bag = conditionIndex.bag(condition);
+            for (int term : bag) {
+                if (this.termConditions[term] == null) {
+                    this.termConditions[term] = conditionIndex.positions(term);
+                }
+            }
+            int state = terminals[condition];
+            // NOTE: Names with the same words end at the same state and get the same answer.
+            if (state != 0 && this.output[state] < 0) {
+                this.output[state] = condition;
+                // The key index may prefer another condition containing the same words,
+                // e.g. a shorter name with the words in a different order.
+                this.outputAnswer[state] = conditionIndex.bestMatch(bag);
+                this.outputWords[state] = bag.length;
+            }
+        }
+
+        // Compute the failure links in breadth-first order, so that the links
+        // of the shorter states are known when the longer ones need them.
+        this.fail = new int[numStates];
+        Queue<Integer> queue = new ArrayDeque<Integer>();
+        queue.add(0);
+        while (! queue.isEmpty()) {
+            int parent = queue.poll();
+            for (int i = 0; i < this.childStates[parent].length; i++) {
+                int state = this.childStates[parent][i];
+                this.fail[state] = (parent == 0) ? 0 : next(this.fail[parent], this.childSymbols[parent][i]);
+                if (this.output[state] < 0) {
+                    // Inherit the longest name that is a suffix of this state
+                    this.output[state] = this.output[this.fail[state]];
+                    this.outputAnswer[state] = this.outputAnswer[this.fail[state]];
+                    this.outputWords[state] = this.outputWords[this.fail[state]];
+                }
+                queue.add(state);
+            }
+        }
+    }
+
+    private int next(int state, int symbol) {
+        while (true) {
+            int child = Arrays.binarySearch(this.childSymbols[state], symbol);
+            if (child >= 0) {
+                return this.childStates[state][child];
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = this.fail[state];
+        }
+    }
+
+    /**
+     * Finds the condition the query is about, the same as KeyIndex.bestMatch() would:
+     * the condition whose name shares the most words with the query, the first one
+     * in the index among equals.
+     *
+     * The automaton finds the name mentioned with the most words, and only the conditions
+     * containing the other words of the query may share even more words with it, so
+     * these are the only ones to check. Unlike the merge of the postings of all the words
+     * of the query, this skips the long postings of the common words like "cancer".
+     *
+     * @param words Ids of the words of the query, in order (see Preprocessor.wordSequence()),
+     *              -1 for the unknown words.
+     * @return Position of the condition in the condition index, or -1 if the query
+     *         does not mention any condition name in full.
+     */
+    int match(int[] words) {
+        // The words of the query that appear in any name
+        int[] query = new int[words.length];
+        int numTerms = 0;
+        int state = 0;
+        int mention = -1;
+        int best = -1;
+        int bestWords = 0;
+        for (int word : words) {
+            if (word < 0 || this.termConditions[word] == null) {
+                // No name contains this word
+                state = 0;
+                continue;
+            }
+            query[numTerms++] = word;
+            state = next(state, word);
+            if (this.outputWords[state] > bestWords) {
+                mention = this.output[state];
+                best = this.outputAnswer[state];
+                bestWords = this.outputWords[state];
+            }
+        }
+        if (mention < 0) {
+            return -1;
+        }
+        query = Vocabulary.sortedDistinct(query, numTerms);
+        if (query.length == bestWords) {
+            // The mention contains all the words of the query that appear in any name
+            return best;
+        }
+        int[] mentioned = this.conditionIndex.bag(mention);
+        for (int term : query) {
+            if (Arrays.binarySearch(mentioned, term) >= 0) {
+                continue;
+            }
+            for (int condition : this.termConditions[term]) {
+                int[] conditionWords = this.conditionIndex.bag(condition);
+                if (conditionWords.length < bestWords) {
+                    continue;
+                }
+                int commonWords = Vocabulary.countCommon(conditionWords, query);
+                if (commonWords > bestWords || (commonWords == bestWords && condition < best)) {
+                    best = condition;
+                    bestWords = commonWords;
+                }
+            }
+        }
+        return best;
+    }
+}
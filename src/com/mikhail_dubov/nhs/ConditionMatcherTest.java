@@ -0,0 +1,77 @@
+package com.mikhail_dubov.nhs;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.json.simple.parser.ParseException;
+
+public class ConditionMatcherTest {
+
+	/**
+	 * Checks that whenever ConditionMatcher finds a condition mentioned in a query,
+	 * it is the same condition as KeyIndex.bestMatch() over all the condition names.
+	 */
+    public static void main(String[] args) throws FileNotFoundException, IOException, ParseException {
+        AnswerEngine engine = new AnswerEngine("data/data.json", "data/stopwords.txt", new AnswererOptions(),
+                                               new StemCache(0, BoundedCache.EvictionPolicy.LRU));
+        KeyIndex conditions = engine.conditionIndex;
+        List<String> queries = new ArrayList<String>();
+        Random random = new Random(42);
+        for (int condition = 0; condition < conditions.size(); condition++) {
+            String name = conditions.key(condition);
+            String other = conditions.key(random.nextInt(conditions.size()));
+            queries.add(name);
+            queries.add("What are the symptoms of " + name + "?");
+            queries.add(name + " and " + other);
+            queries.add(other + " " + name);
+            // The words of the name shuffled, with a word of another name
+            List<String> words = new ArrayList<String>(engine.conditionTerms.get(name));
+            List<String> otherWords = engine.conditionTerms.get(other);
+            if (! otherWords.isEmpty()) {
+                words.add(otherWords.get(random.nextInt(otherWords.size())));
+            }
+            Collections.shuffle(words, random);
+            StringBuilder query = new StringBuilder();
+            for (String word : words) {
+                query.append(word).append(' ');
+            }
+            queries.add(query.toString());
+        }
+        int matched = 0;
+        int failures = 0;
+        for (String query : queries) {
+            List<String> words = engine.preprocessor.wordSequence(query);
+            int[] ids = new int[words.size()];
+            int[] bag = new int[words.size()];
+            int size = 0;
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = engine.vocabulary.id(words.get(i));
+                if (ids[i] >= 0) {
+                    bag[size++] = ids[i];
+                }
+            }
+            int actual = engine.conditionMatcher.match(ids);
+            if (actual < 0) {
+                continue;
+            }
+            matched++;
+            int expected = conditions.bestMatch(Vocabulary.sortedDistinct(bag, size));
+            if (actual != expected) {
+                System.out.println("FAILED: \"" + query + "\": expected "
+                                   + (expected >= 0 ? conditions.key(expected) : null)
+                                   + ", got " + conditions.key(actual));
+                failures++;
+            }
+        }
+        System.out.println(queries.size() + " queries checked (" + matched + " with a mention), "
+                           + failures + " failures");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+}
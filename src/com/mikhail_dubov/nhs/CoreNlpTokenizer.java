@@ -0,0 +1,27 @@
+package com.mikhail_dubov.nhs;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.stanford.nlp.ling.Word;
+import edu.stanford.nlp.process.PTBTokenizer;
+
+/**
+ * Tokenizer based on the Stanford CoreNLP PTBTokenizer.
+ *
+ * @author Mikhail Dubov
+ */
+public class CoreNlpTokenizer implements Tokenizer {
+
+    @Override
+    public List<String> tokenize(String str) {
+        Iterator<Word> words = PTBTokenizer.newPTBTokenizer(new StringReader(str));
+        List<String> tokens = new ArrayList<String>();
+        while (words.hasNext()) {
+            tokens.add(words.next().word());
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,582 @@
+package com.mikhail_dubov.nhs;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Compact binary snapshot of the NHS data, together with the preprocessed keys
+ * (both as bags of words and, for the condition names, as word sequences)
+ * and the full-text index over the texts.
+ *
+ * Loading a snapshot does not involve any JSON parsing nor any preprocessing
+ * of the keys or the texts, so it is much faster than loading data.json. The file layout
+ * (all integers are big-endian) is as follows:
+ * <pre>
+ *   int magic, int version
+ *   int numStrings, int[numStrings + 1] string offsets, byte[] UTF-8 strings
+ *   int numKeys, numKeys * (int keyId, int numStems, int[numStems] stemIds)
+ *   int numNames, numNames * (int keyId, int numWords, int[numWords] stemIds)
+ *   int numConditions, numConditions * (int offset, int length, int numSections,
+ *                                       numSections * (int offset, int length))
+ *   int numPayloadBytes, byte[numPayloadBytes] UTF-8 JSON of the conditions
+ *   int numConditions, numConditions * (int keyId, value)
+ *   int numDocs, int[numDocs] document lengths
+ *   int numTerms, numTerms * (int termId, int docFreq, int[docFreq] docs, int[docFreq] termFreqs)
+ * </pre>
+ * where a value is either (byte 0, int stringId) or (byte 1, int size, size * (int keyId, value)).
+ * Every distinct string (key, text or stem) is stored only once in the string table.
+ * The documents of the full-text index are the sections, in the order of BodyIndex.
+ * The conditions and their sections, i.e. all the possible responses, are also stored
+ * as JSON (see MappedNode); the offsets are relative to the first byte of the JSON, and
+ * the JSON of a section is a part of the JSON of its condition.
+ *
+ * NOTE: The stems depend on the stopwords list used to build the snapshot,
+ *       so the snapshot has to be rebuilt whenever the stopwords change.
+ *
+ * @author Mikhail Dubov
+ */
+public class CorpusSnapshot {
+
+    static final int MAGIC = 0x4E485351;  // "NHSQ"
+    static final int VERSION = 5;
+
+    private static final byte STRING_VALUE = 0;
+    private static final byte OBJECT_VALUE = 1;
+
+    private final JSONObject data;
+    private final Map<String, Set<String>> keyBags;
+    private final Map<String, List<String>> conditionTerms;
+    private final int[] docLengths;
+    private final Map<String, int[]> postingDocs;
+    private final Map<String, int[]> postingFreqs;
+
+    private CorpusSnapshot(JSONObject data, Map<String, Set<String>> keyBags,
+                           Map<String, List<String>> conditionTerms, int[] docLengths,
+                           Map<String, int[]> postingDocs, Map<String, int[]> postingFreqs) {
+        this.data = data;
+        this.keyBags = keyBags;
+        this.conditionTerms = conditionTerms;
+        this.docLengths = docLengths;
+        this.postingDocs = postingDocs;
+        this.postingFreqs = postingFreqs;
+    }
+
+    /**
+     * @return The NHS data stored in the snapshot.
+     */
+    public JSONObject getData() {
+        return this.data;
+    }
+
+    /**
+     * @return The preprocessed condition and section names stored in the snapshot.
+     */
+    public Map<String, Set<String>> getKeyBags() {
+        return this.keyBags;
+    }
+
+    /**
+     * @return The preprocessed condition names (as word sequences) stored in the snapshot.
+     */
+    public Map<String, List<String>> getConditionTerms() {
+        return this.conditionTerms;
+    }
+
+    /**
+     * Restores the full-text index stored in the snapshot.
+     *
+     * @param conditionIndex The index over the conditions of the data from this snapshot.
+     * @param vocabulary Ids of the terms, the terms of the texts get added to it.
+     */
+    BodyIndex getBodyIndex(KeyIndex conditionIndex, Vocabulary vocabulary) {
+        return new BodyIndex(conditionIndex, this.docLengths, this.postingDocs, this.postingFreqs,
+                             vocabulary);
+    }
+
+    /**
+     * Checks whether the given file is a snapshot (as opposed to a JSON file).
+     *
+     * @param path Path to the file.
+     * @return true if the file starts with the snapshot magic number.
+     * @throws IOException If there were problems reading from the file.
+     */
+    public static boolean isSnapshot(String path) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(path));
+        try {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the NHS data, the preprocessed keys and the full-text index into a snapshot file.
+     *
+     * NOTE: The snapshot is written to a temporary file that then replaces the file at once,
+     *       as a snapshot must never be overwritten in place: it may be mapped into memory
+     *       by a running server (see read()), which would then read the new bytes.
+     *
+     * @param data The NHS data.
+     * @param keyBags The preprocessed condition and section names.
+     * @param conditionTerms The preprocessed condition names, as word sequences.
+     * @param bodyIndex The full-text index over the texts of the data.
+     * @param path Path to the output file.
+     * @throws IOException If there were problems writing to the file.
+     */
+    static void write(JSONObject data, Map<String, Set<String>> keyBags,
+                      Map<String, List<String>> conditionTerms, BodyIndex bodyIndex,
+                      String path) throws IOException {
+        // Build the string table, assigning the ids in order of first appearance
+        StringTable strings = new StringTable();
+        for (Map.Entry<String, Set<String>> entry : keyBags.entrySet()) {
+            strings.id(entry.getKey());
+            for (String stem : entry.getValue()) {
+                strings.id(stem);
+            }
+        }
+        for (List<String> words : conditionTerms.values()) {
+            for (String word : words) {
+                strings.id(word);
+            }
+        }
+        collectStrings(data, strings);
+        int[][] postingDocs = bodyIndex.getPostingDocs();
+        int[][] postingFreqs = bodyIndex.getPostingFreqs();
+        int numTerms = 0;
+        for (int term = 0; term < postingDocs.length; term++) {
+            if (postingDocs[term] != null) {
+                strings.id(bodyIndex.term(term));
+                numTerms++;
+            }
+        }
+
+        File target = new File(path).getAbsoluteFile();
+        File temp = File.createTempFile(target.getName() + ".", ".tmp", target.getParentFile());
+        boolean written = false;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            List<byte[]> encoded = new ArrayList<byte[]>(strings.list.size());
+            for (String str : strings.list) {
+                encoded.add(str.getBytes(StandardCharsets.UTF_8));
+            }
+            out.writeInt(encoded.size());
+            int offset = 0;
+            for (byte[] bytes : encoded) {
+                out.writeInt(offset);
+                offset += bytes.length;
+            }
+            out.writeInt(offset);
+            for (byte[] bytes : encoded) {
+                out.write(bytes);
+            }
+
+            out.writeInt(keyBags.size());
+            for (Map.Entry<String, Set<String>> entry : keyBags.entrySet()) {
+                out.writeInt(strings.id(entry.getKey()));
+                out.writeInt(entry.getValue().size());
+                for (String stem : entry.getValue()) {
+                    out.writeInt(strings.id(stem));
+                }
+            }
+
+            out.writeInt(conditionTerms.size());
+            for (Map.Entry<String, List<String>> entry : conditionTerms.entrySet()) {
+                out.writeInt(strings.id(entry.getKey()));
+                out.writeInt(entry.getValue().size());
+                for (String word : entry.getValue()) {
+                    out.writeInt(strings.id(word));
+                }
+            }
+
+            // Pre-serialize the responses
+            int numConditions = data.size();
+            ByteArrayOutputStream payloads = new ByteArrayOutputStream();
+            out.writeInt(numConditions);
+            for (Object key : data.keySet()) {
+                int[] ranges = writePayload((JSONObject) data.get(key), payloads);
+                out.writeInt(ranges[0]);
+                out.writeInt(ranges[1]);
+                out.writeInt(ranges.length / 2 - 1);
+                for (int i = 2; i < ranges.length; i++) {
+                    out.writeInt(ranges[i]);
+                }
+            }
+            out.writeInt(payloads.size());
+            payloads.writeTo(out);
+
+            // The conditions, in the same order as their payloads
+            out.writeInt(numConditions);
+            for (Object key : data.keySet()) {
+                out.writeInt(strings.id((String) key));
+                writeValue(data.get(key), strings, out);
+            }
+
+            int[] docLengths = bodyIndex.getDocLengths();
+            out.writeInt(docLengths.length);
+            writeInts(docLengths, out);
+            out.writeInt(numTerms);
+            for (int term = 0; term < postingDocs.length; term++) {
+                if (postingDocs[term] != null) {
+                    out.writeInt(strings.id(bodyIndex.term(term)));
+                    out.writeInt(postingDocs[term].length);
+                    writeInts(postingDocs[term], out);
+                    writeInts(postingFreqs[term], out);
+                }
+            }
+            out.close();
+            // The file mapped by the readers keeps its content, they see the new one on reload
+            Files.move(temp.toPath(), target.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            written = true;
+        } finally {
+            out.close();
+            if (! written) {
+                temp.delete();
+            }
+        }
+    }
+
+    private static void writeInts(int[] values, DataOutputStream out) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Serializes a condition exactly as JsonWriter does, keeping track of where its sections are.
+     *
+     * @return The offset and the length of the JSON of the condition in payloads,
+     *         followed by the offset and the length of each section, in the iteration order.
+     */
+    private static int[] writePayload(JSONObject condition, ByteArrayOutputStream payloads)
+            throws IOException {
+        Writer out = new OutputStreamWriter(payloads, StandardCharsets.UTF_8);
+        int[] ranges = new int[2 + 2 * condition.size()];
+        ranges[0] = payloads.size();
+        out.write('{');
+        int i = 2;
+        for (Object entry : condition.entrySet()) {
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) entry;
+            if (i > 2) {
+                out.write(',');
+            }
+            JsonWriter.writeString((String) e.getKey(), out);
+            out.write(':');
+            out.flush();
+            ranges[i] = payloads.size();
+            JsonWriter.write(e.getValue(), out);
+            out.flush();
+            ranges[i + 1] = payloads.size() - ranges[i];
+            i += 2;
+        }
+        out.write('}');
+        out.flush();
+        ranges[1] = payloads.size() - ranges[0];
+        return ranges;
+    }
+
+    /**
+     * Pre-serializes a condition the same way as the ones read from a snapshot, but on the heap,
+     * e.g. for a condition that changed since the snapshot has been built.
+     *
+     * @return A copy of the condition whose sections are pre-serialized too, which does not
+     *         depend on any mapped file (the mapped texts are decoded).
+     */
+    static JSONObject materialize(JSONObject condition) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        int[] ranges = writePayload(condition, payload);
+        ByteBuffer buffer = ByteBuffer.wrap(payload.toByteArray());
+        MappedNode node = new MappedNode(buffer, ranges[0], ranges[1]);
+        int i = 2;
+        for (Object entry : condition.entrySet()) {
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) entry;
+            Object value = e.getValue();
+            if (value instanceof JSONObject) {
+                MappedNode section = new MappedNode(buffer, ranges[i], ranges[i + 1]);
+                for (Object field : ((JSONObject) value).entrySet()) {
+                    Map.Entry<?, ?> f = (Map.Entry<?, ?>) field;
+                    Object text = f.getValue();
+                    section.put(f.getKey(), (text instanceof MappedText) ? text.toString() : text);
+                }
+                value = section;
+            }
+            node.put(e.getKey(), value);
+            i += 2;
+        }
+        return node;
+    }
+
+    private static void collectStrings(Object value, StringTable strings) throws IOException {
+        if (value instanceof JSONObject) {
+            for (Object entry : ((JSONObject) value).entrySet()) {
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) entry;
+                strings.id((String) e.getKey());
+                collectStrings(e.getValue(), strings);
+            }
+        } else if (value instanceof String || value instanceof MappedText) {
+            strings.id(value.toString());
+        } else {
+            throw new IOException("Unsupported value in the NHS data: " + value);
+        }
+    }
+
+    private static void writeValue(Object value, StringTable strings, DataOutputStream out)
+            throws IOException {
+        if (value instanceof JSONObject) {
+            JSONObject obj = (JSONObject) value;
+            out.writeByte(OBJECT_VALUE);
+            out.writeInt(obj.size());
+            // NOTE: We keep the iteration order, so that the JSON objects are rebuilt
+            //       with exactly the same order and the answers stay byte-identical.
+            for (Object entry : obj.entrySet()) {
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) entry;
+                out.writeInt(strings.id((String) e.getKey()));
+                writeValue(e.getValue(), strings, out);
+            }
+        } else {
+            out.writeByte(STRING_VALUE);
+            out.writeInt(strings.id(value.toString()));
+        }
+    }
+
+    /**
+     * Loads a snapshot by memory-mapping the file, decoding all the texts.
+     *
+     * @param path Path to the snapshot file.
+     * @return The loaded snapshot.
+     * @throws FileNotFoundException If the file does not exist.
+     * @throws IOException If there were problems reading from the file or it is not a valid snapshot.
+     */
+    public static CorpusSnapshot read(String path) throws FileNotFoundException, IOException {
+        return read(path, false);
+    }
+
+    /**
+     * Loads a snapshot by memory-mapping the file.
+     *
+     * @param path Path to the snapshot file.
+     * @param mapTexts If true, the texts of the subsections (third level of the JSON tree)
+     *                 are left in the mapped file as MappedText values, that are decoded
+     *                 only when serialized. Only the keys are then kept on the heap.
+     * @return The loaded snapshot.
+     * @throws FileNotFoundException If the file does not exist.
+     * @throws IOException If there were problems reading from the file or it is not a valid snapshot.
+     */
+    public static CorpusSnapshot read(String path, boolean mapTexts) throws FileNotFoundException, IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        MappedByteBuffer buffer;
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            // NOTE: The mapping stays valid after the channel is closed.
+            file.close();
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a valid NHS data snapshot: " + path);
+        }
+        if (buffer.getInt() != VERSION) {
+            throw new IOException("Outdated NHS data snapshot, please rebuild it: " + path);
+        }
+
+        MappedStrings strings = new MappedStrings(buffer);
+
+        int numKeys = buffer.getInt();
+        Map<String, Set<String>> keyBags = new HashMap<String, Set<String>>(numKeys * 2);
+        for (int i = 0; i < numKeys; i++) {
+            String key = strings.string(buffer.getInt());
+            int numStems = buffer.getInt();
+            Set<String> bag = new HashSet<String>();
+            for (int j = 0; j < numStems; j++) {
+                bag.add(strings.string(buffer.getInt()));
+            }
+            keyBags.put(key, Collections.unmodifiableSet(bag));
+        }
+
+        int numNames = buffer.getInt();
+        Map<String, List<String>> conditionTerms = new HashMap<String, List<String>>(numNames * 2);
+        for (int i = 0; i < numNames; i++) {
+            String key = strings.string(buffer.getInt());
+            int numWords = buffer.getInt();
+            List<String> words = new ArrayList<String>(numWords);
+            for (int j = 0; j < numWords; j++) {
+                words.add(strings.string(buffer.getInt()));
+            }
+            conditionTerms.put(key, Collections.unmodifiableList(words));
+        }
+
+        int numConditions = buffer.getInt();
+        int[][] payloadRanges = new int[numConditions][];
+        for (int i = 0; i < numConditions; i++) {
+            int offset = buffer.getInt();
+            int length = buffer.getInt();
+            int numSections = buffer.getInt();
+            payloadRanges[i] = new int[2 + 2 * numSections];
+            payloadRanges[i][0] = offset;
+            payloadRanges[i][1] = length;
+            for (int j = 2; j < payloadRanges[i].length; j++) {
+                payloadRanges[i][j] = buffer.getInt();
+            }
+        }
+        int numPayloadBytes = buffer.getInt();
+        int payloadBase = buffer.position();
+        buffer.position(payloadBase + numPayloadBytes);
+
+        numConditions = buffer.getInt();
+        JSONObject data = new JSONObject();
+        for (int i = 0; i < numConditions; i++) {
+            String key = strings.string(buffer.getInt());
+            data.put(key, readValue(buffer, strings, 1, mapTexts, payloadBase, payloadRanges[i]));
+        }
+
+        int[] docLengths = readInts(buffer, buffer.getInt());
+        int numTerms = buffer.getInt();
+        Map<String, int[]> postingDocs = new HashMap<String, int[]>(numTerms * 2);
+        Map<String, int[]> postingFreqs = new HashMap<String, int[]>(numTerms * 2);
+        for (int i = 0; i < numTerms; i++) {
+            String term = strings.string(buffer.getInt());
+            int docFreq = buffer.getInt();
+            postingDocs.put(term, readInts(buffer, docFreq));
+            postingFreqs.put(term, readInts(buffer, docFreq));
+        }
+        return new CorpusSnapshot(data, keyBags, conditionTerms, docLengths, postingDocs, postingFreqs);
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * count);
+        return values;
+    }
+
+    /**
+     * @param payloadRanges The offset and the length of the JSON of the value (relative
+     *                      to payloadBase), followed by the ones of its children, if the value
+     *                      is a condition; the offset and the length only, if it is a section;
+     *                      null otherwise.
+     */
+    private static Object readValue(ByteBuffer buffer, MappedStrings strings, int depth, boolean mapTexts,
+                                    int payloadBase, int[] payloadRanges) throws IOException {
+        byte type = buffer.get();
+        if (type == STRING_VALUE) {
+            int id = buffer.getInt();
+            return (mapTexts && depth >= 3) ? strings.text(id) : strings.string(id);
+        } else if (type == OBJECT_VALUE) {
+            int size = buffer.getInt();
+            JSONObject obj = (payloadRanges != null)
+                             ? new MappedNode(buffer, payloadBase + payloadRanges[0], payloadRanges[1])
+                             : new JSONObject();
+            for (int i = 0; i < size; i++) {
+                String key = strings.string(buffer.getInt());
+                int[] childRanges = (depth == 1) ? Arrays.copyOfRange(payloadRanges, 2 + 2 * i, 4 + 2 * i)
+                                                 : null;
+                obj.put(key, readValue(buffer, strings, depth + 1, mapTexts, payloadBase, childRanges));
+            }
+            return obj;
+        } else {
+            throw new IOException("Corrupted NHS data snapshot: unknown value type " + type);
+        }
+    }
+
+    /**
+     * String table of a mapped snapshot. The strings are decoded on first access,
+     * so that each distinct string exists only once on the heap.
+     */
+    private static class MappedStrings {
+        private final ByteBuffer buffer;
+        private final int base;
+        private final int[] offsets;
+        private final Object[] decoded;
+
+        MappedStrings(ByteBuffer buffer) {
+            int numStrings = buffer.getInt();
+            this.offsets = new int[numStrings + 1];
+            for (int i = 0; i <= numStrings; i++) {
+                this.offsets[i] = buffer.getInt();
+            }
+            this.buffer = buffer;
+            this.base = buffer.position();
+            this.decoded = new Object[numStrings];
+            // Skip the string bytes, leaving the buffer at the next section
+            buffer.position(this.base + this.offsets[numStrings]);
+        }
+
+        String string(int id) {
+            if (! (this.decoded[id] instanceof String)) {
+                this.decoded[id] = text(id).toString();
+            }
+            return (String) this.decoded[id];
+        }
+
+        MappedText text(int id) {
+            if (this.decoded[id] instanceof MappedText) {
+                return (MappedText) this.decoded[id];
+            }
+            MappedText text = new MappedText(this.buffer, this.base + this.offsets[id],
+                                             this.offsets[id + 1] - this.offsets[id]);
+            if (this.decoded[id] == null) {
+                this.decoded[id] = text;
+            }
+            return text;
+        }
+    }
+
+    /**
+     * Table of distinct strings, identified by their index.
+     */
+    private static class StringTable {
+        private final Map<String, Integer> ids = new HashMap<String, Integer>();
+        private final List<String> list = new ArrayList<String>();
+
+        int id(String str) {
+            Integer id = this.ids.get(str);
+            if (id == null) {
+                id = this.list.size();
+                this.ids.put(str, id);
+                this.list.add(str);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Build step converting the NHS data into a snapshot. Takes the paths to the NHS data
+     * and the stopwords list as its first two arguments and the path to the output
+     * snapshot file as its third argument.
+     */
+    public static void main(String[] args) throws FileNotFoundException, IOException, ParseException {
+        QuestionAnswerer qa = new QuestionAnswerer(args[0], args[1]);
+        qa.writeSnapshot(args[2]);
+    }
+}
@@ -0,0 +1,179 @@
+package com.mikhail_dubov.nhs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lightweight tokenizer for short strings such as queries and JSON keys, that does
+ * not need the Stanford CoreNLP library.
+ *
+ * It reproduces the behaviour of PTBTokenizer on the kind of strings we deal with:
+ * words may contain inner hyphens, slashes and periods ("x-ray", "dtap/ipv", "c.diff"),
+ * clitics are split off ("haven't" -> "have", "n't"; "raynaud's" -> "raynaud", "'s"),
+ * brackets and quotes are normalized ("(" -> "-LRB-", "\"" -> "``" or "''"),
+ * and the remaining punctuation characters become separate tokens.
+ *
+ * @author Mikhail Dubov
+ */
+public class FastTokenizer implements Tokenizer {
+
+    private static final String[] CLITICS = { "s", "m", "d", "re", "ve", "ll" };
+
+    @Override
+    public List<String> tokenize(String str) {
+        List<String> tokens = new ArrayList<String>();
+        int length = str.length();
+        int i = 0;
+        while (i < length) {
+            char c = str.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                i = scanWord(str, i, tokens);
+                continue;
+            }
+            switch (c) {
+                case '(':
+                    tokens.add("-LRB-");
+                    break;
+                case ')':
+                    tokens.add("-RRB-");
+                    break;
+                case '[':
+                    tokens.add("-LSB-");
+                    break;
+                case ']':
+                    tokens.add("-RSB-");
+                    break;
+                case '{':
+                    tokens.add("-LCB-");
+                    break;
+                case '}':
+                    tokens.add("-RCB-");
+                    break;
+                case '"':
+                    tokens.add(isWordStart(str, i) ? "``" : "''");
+                    break;
+                case '\u201C':
+                    tokens.add("``");
+                    break;
+                case '\u201D':
+                    tokens.add("''");
+                    break;
+                case '\'':
+                case '\u2019':
+                    tokens.add(isWordStart(str, i) ? "`" : "'");
+                    break;
+                case '\u2018':
+                    tokens.add("`");
+                    break;
+                case '\u2026':
+                    tokens.add("...");
+                    break;
+                case '\u2013':
+                case '\u2014':
+                    tokens.add("--");
+                    break;
+                case '.':
+                case '-': {
+                    // Runs like "..." or "--" are single tokens
+                    int end = i + 1;
+                    while (end < length && str.charAt(end) == c) {
+                        end++;
+                    }
+                    tokens.add((c == '.' && end - i > 3) ? "..." : str.substring(i, end));
+                    i = end;
+                    continue;
+                }
+                default:
+                    // Whitespace and characters that cannot be tokenized are separators
+                    if (! Character.isWhitespace(c) && ! Character.isSpaceChar(c)
+                            && c != '\uFFFD' && ! Character.isISOControl(c)) {
+                        tokens.add(String.valueOf(c));
+                    }
+            }
+            i++;
+        }
+        return tokens;
+    }
+
+    /**
+     * Scans the word starting at the given position, adds its token(s) and returns
+     * the position right after it.
+     */
+    private static int scanWord(String str, int start, List<String> tokens) {
+        int length = str.length();
+        int end = start;
+        while (true) {
+            while (end < length && Character.isLetterOrDigit(str.charAt(end))) {
+                end++;
+            }
+            // Inner hyphens, slashes and periods join words, commas only join numbers
+            if (end + 1 < length && Character.isLetterOrDigit(str.charAt(end + 1))) {
+                char joiner = str.charAt(end);
+                if (joiner == '-' || joiner == '/' || joiner == '.'
+                        || (joiner == ',' && Character.isDigit(str.charAt(end - 1))
+                                          && Character.isDigit(str.charAt(end + 1)))) {
+                    end++;
+                    continue;
+                }
+            }
+            break;
+        }
+        String word = str.substring(start, end);
+
+        // Clitics: "n't" (a special case, as it takes the "n" from the word) and "'s" etc.
+        if (end < length && isApostrophe(str.charAt(end))) {
+            if (word.length() > 1 && word.endsWith("n") && isClitic(str, end + 1, "t")) {
+                tokens.add(word.substring(0, word.length() - 1));
+                tokens.add("n't");
+                return end + 2;
+            }
+            for (String clitic : CLITICS) {
+                if (isClitic(str, end + 1, clitic)) {
+                    tokens.add(word);
+                    tokens.add("'" + clitic);
+                    return end + 1 + clitic.length();
+                }
+            }
+        }
+        if (word.equals("cannot")) {
+            tokens.add("can");
+            tokens.add("not");
+            return end;
+        }
+        // Abbreviations like "e. coli" or "e.g." keep their final period
+        if (end < length && str.charAt(end) == '.'
+                && ((word.length() == 1 && Character.isLetter(word.charAt(0))) || word.indexOf('.') >= 0)
+                && (end + 1 == length || Character.isWhitespace(str.charAt(end + 1)))) {
+            tokens.add(word + ".");
+            return end + 1;
+        }
+        tokens.add(word);
+        return end;
+    }
+
+    private static boolean isApostrophe(char c) {
+        return c == '\'' || c == '\u2019';
+    }
+
+    /**
+     * @return true if the clitic is found at the given position and is not followed by a letter.
+     */
+    private static boolean isClitic(String str, int pos, String clitic) {
+        int end = pos + clitic.length();
+        return str.startsWith(clitic, pos)
+               && (end == str.length() || ! Character.isLetterOrDigit(str.charAt(end)));
+    }
+
+    /**
+     * @return true if the character at the given position starts a new word (so a quote
+     *         there is an opening one).
+     */
+    private static boolean isWordStart(String str, int pos) {
+        if (pos == 0) {
+            return true;
+        }
+        char prev = str.charAt(pos - 1);
+        return Character.isWhitespace(prev) || Character.isSpaceChar(prev)
+               || prev == '(' || prev == '[' || prev == '{' || prev == '\uFFFD';
+    }
+}
@@ -0,0 +1,134 @@
+package com.mikhail_dubov.nhs;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class IncrementalReloadTest {
+
+	/**
+	 * Checks that reloading a new version of the data incrementally (re-indexing only
+	 * the changed conditions) gives the same answers as loading that version from scratch,
+	 * starting both from the JSON data and from a snapshot (that then gets overwritten).
+	 */
+    public static void main(String[] args) throws FileNotFoundException, IOException, ParseException {
+        String stopwords = "data/stopwords.txt";
+        JSONObject data = (JSONObject) new JSONParser().parse(new FileReader("data/data.json"));
+        List<String> names = new ArrayList<String>();
+        for (Object condition : data.keySet()) {
+            names.add((String) condition);
+        }
+        Collections.sort(names);
+
+        // Change a few conditions, remove some and add a new one
+        Random random = new Random(7);
+        List<String> queries = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            String name = names.get(random.nextInt(names.size()));
+            JSONObject condition = (JSONObject) data.get(name);
+            for (Object section : condition.keySet()) {
+                if (condition.get(section) instanceof JSONObject) {
+                    JSONObject texts = (JSONObject) condition.get(section);
+                    for (Object subsection : texts.keySet()) {
+                        if (! "URL".equals(subsection)) {
+                            texts.put(subsection, texts.get(subsection) + " glorbination of the fever");
+                            break;
+                        }
+                    }
+                    break;
+                }
+            }
+            queries.add(name);
+        }
+        for (int i = 0; i < 2; i++) {
+            String name = names.get(random.nextInt(names.size()));
+            data.remove(name);
+            queries.add(name);
+        }
+        data.put("Glorbination syndrome", JSONValue.parse(((JSONObject) data.get(names.get(3))).toString()));
+        queries.add("glorbination syndrome");
+        queries.add("glorbination");
+        for (int i = 0; i < 300; i++) {
+            String name = names.get(random.nextInt(names.size()));
+            queries.add(name);
+            queries.add("What are the symptoms of " + name + "?");
+        }
+        File newData = File.createTempFile("nhs", ".json");
+        newData.deleteOnExit();
+        // NOTE: The data is read in the default charset, so the non-ASCII characters are
+        //       escaped to read the same texts whatever the charset.
+        Writer out = new FileWriter(newData);
+        out.write(escapeNonAscii(data.toString()));
+        out.close();
+
+        QuestionAnswerer expected = new QuestionAnswerer(newData.getPath(), stopwords);
+        int failures = 0;
+
+        QuestionAnswerer fromJson = new QuestionAnswerer("data/data.json", stopwords);
+        fromJson.reload(newData.getPath(), stopwords);
+        failures += compare("from JSON", expected, fromJson, queries);
+
+        File snapshot = File.createTempFile("nhs", ".snapshot");
+        snapshot.deleteOnExit();
+        new QuestionAnswerer("data/data.json", stopwords).writeSnapshot(snapshot.getPath());
+        QuestionAnswerer fromSnapshot = new QuestionAnswerer(snapshot.getPath(), stopwords,
+                                                             new AnswererOptions().setMapTexts(true));
+        fromSnapshot.reload(newData.getPath(), stopwords);
+        // The new data must not depend on the snapshot anymore
+        FileOutputStream overwrite = new FileOutputStream(snapshot);
+        overwrite.write(new byte[1 << 20]);
+        overwrite.close();
+        failures += compare("from a snapshot", expected, fromSnapshot, queries);
+
+        System.out.println(queries.size() + " queries checked, " + failures + " failures");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return Number of the queries answered differently (the order of the fields may differ).
+     */
+    private static int compare(String name, QuestionAnswerer expected, QuestionAnswerer actual,
+                               List<String> queries) throws IOException {
+        int failures = 0;
+        for (String query : queries) {
+            Object expectedAnswer = JSONValue.parse(new String(expected.answerJson(query), "UTF-8"));
+            Object actualAnswer = JSONValue.parse(new String(actual.answerJson(query), "UTF-8"));
+            Object expectedRanking = JSONValue.parse(JSONValue.toJSONString(expected.answer(query, 5)));
+            Object actualRanking = JSONValue.parse(JSONValue.toJSONString(actual.answer(query, 5)));
+            if (! expectedAnswer.equals(actualAnswer) || ! expectedRanking.equals(actualRanking)) {
+                System.out.println("FAILED: " + name + ": \"" + query + "\"");
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    private static String escapeNonAscii(String json) {
+        StringBuilder sb = new StringBuilder(json.length());
+        for (int i = 0; i < json.length(); i++) {
+            char ch = json.charAt(i);
+            if (ch < 0x80) {
+                sb.append(ch);
+            } else {
+                sb.append(String.format("\\u%04X", (int) ch));
+            }
+        }
+        return sb.toString();
+    }
+
+}
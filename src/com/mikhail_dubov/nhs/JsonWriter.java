@@ -0,0 +1,182 @@
+package com.mikhail_dubov.nhs;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONAware;
+import org.json.simple.JSONObject;
+
+/**
+ * Serializes the (parts of the) NHS data straight to a Writer, producing exactly the same
+ * JSON as json-simple's toString(), but without building the whole response as one String.
+ * The strings are escaped in place: the runs of characters that need no escaping, i.e.
+ * almost all of the text, are written as is with a single call.
+ *
+ * @author Mikhail Dubov
+ */
+final class JsonWriter {
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private JsonWriter() {
+    }
+
+    /**
+     * Writes the value in JSON format, the same as JSONValue.toJSONString(value).
+     *
+     * @param value JSON object, array, string, number, boolean or null (or any JSONAware value).
+     * @param out The writer to write to (it is neither flushed nor closed).
+     * @throws IOException If there were problems writing.
+     */
+    static void write(Object value, Writer out) throws IOException {
+        // NOTE: The order of the checks follows JSONValue.toJSONString(), e.g. the JSONAware
+        //       values are serialized by themselves, except for the ones we know.
+        if (value == null) {
+            out.write("null");
+        } else if (value instanceof String) {
+            writeString((String) value, out);
+        } else if (value instanceof Double) {
+            Double d = (Double) value;
+            out.write((d.isInfinite() || d.isNaN()) ? "null" : d.toString());
+        } else if (value instanceof Float) {
+            Float f = (Float) value;
+            out.write((f.isInfinite() || f.isNaN()) ? "null" : f.toString());
+        } else if (value instanceof Number || value instanceof Boolean) {
+            out.write(value.toString());
+        } else if (value instanceof MappedNode) {
+            ((MappedNode) value).writeJSONString(out);
+        } else if (value instanceof MappedText) {
+            writeString(value.toString(), out);
+        } else if (value instanceof Map && (! (value instanceof JSONAware)
+                                            || value instanceof JSONObject)) {
+            writeObject((Map<?, ?>) value, out);
+        } else if (value instanceof List && (! (value instanceof JSONAware)
+                                             || value instanceof JSONArray)) {
+            writeArray((List<?>) value, out);
+        } else if (value instanceof JSONAware) {
+            out.write(((JSONAware) value).toJSONString());
+        } else {
+            out.write(value.toString());
+        }
+    }
+
+    /**
+     * Writes only the parts of the value selected by the projection. The excluded fields
+     * are skipped while writing, without building any projected copy of the value.
+     *
+     * @param value JSON object, array, string, number, boolean or null (or any JSONAware value).
+     * @param projection The parts of the value to write.
+     * @param out The writer to write to (it is neither flushed nor closed).
+     * @throws IOException If there were problems writing.
+     */
+    static void write(Object value, Projection projection, Writer out) throws IOException {
+        if (projection.isIdentity()) {
+            write(value, out);
+        } else {
+            write(value, projection, projection.getFields() == null, out);
+        }
+    }
+
+    /**
+     * @param selected true if the value is kept with all its content (only cutting the texts).
+     */
+    private static void write(Object value, Projection projection, boolean selected, Writer out)
+            throws IOException {
+        if (value instanceof String || value instanceof MappedText) {
+            writeString(projection.cut(value.toString()), out);
+        } else if (value instanceof Map && (! (value instanceof JSONAware) || value instanceof JSONObject)) {
+            out.write('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                boolean fieldSelected = selected || projection.selects(entry.getKey());
+                if (! fieldSelected && ! projection.selectsWithin(entry.getValue())) {
+                    continue;
+                }
+                if (! first) {
+                    out.write(',');
+                }
+                first = false;
+                writeString(String.valueOf(entry.getKey()), out);
+                out.write(':');
+                write(entry.getValue(), projection, fieldSelected, out);
+            }
+            out.write('}');
+        } else if (value instanceof List && (! (value instanceof JSONAware) || value instanceof JSONArray)) {
+            out.write('[');
+            for (Iterator<?> it = ((List<?>) value).iterator(); it.hasNext(); ) {
+                write(it.next(), projection, selected, out);
+                if (it.hasNext()) {
+                    out.write(',');
+                }
+            }
+            out.write(']');
+        } else {
+            write(value, out);
+        }
+    }
+
+    private static void writeObject(Map<?, ?> map, Writer out) throws IOException {
+        out.write('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (! first) {
+                out.write(',');
+            }
+            first = false;
+            writeString(String.valueOf(entry.getKey()), out);
+            out.write(':');
+            write(entry.getValue(), out);
+        }
+        out.write('}');
+    }
+
+    private static void writeArray(List<?> list, Writer out) throws IOException {
+        out.write('[');
+        for (Iterator<?> it = list.iterator(); it.hasNext(); ) {
+            write(it.next(), out);
+            if (it.hasNext()) {
+                out.write(',');
+            }
+        }
+        out.write(']');
+    }
+
+    /**
+     * Writes the string in quotes, escaped the same as by JSONValue.escape().
+     */
+    static void writeString(String str, Writer out) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char ch = str.charAt(i);
+            String escape;
+            switch (ch) {
+            case '"':  escape = "\\\""; break;
+            case '\\': escape = "\\\\"; break;
+            case '\b': escape = "\\b"; break;
+            case '\f': escape = "\\f"; break;
+            case '\n': escape = "\\n"; break;
+            case '\r': escape = "\\r"; break;
+            case '\t': escape = "\\t"; break;
+            case '/':  escape = "\\/"; break;
+            default:
+                if (ch <= '\u001F' || (ch >= '\u007F' && ch <= '\u009F')
+                        || (ch >= '\u2000' && ch <= '\u20FF')) {
+                    escape = "\\u" + HEX_DIGITS[(ch >> 12) & 0xF] + HEX_DIGITS[(ch >> 8) & 0xF]
+                             + HEX_DIGITS[(ch >> 4) & 0xF] + HEX_DIGITS[ch & 0xF];
+                } else {
+                    continue;
+                }
+            }
+            out.write(str, start, i - start);
+            out.write(escape);
+            start = i + 1;
+        }
+        out.write(str, start, str.length() - start);
+        out.write('"');
+    }
+}
@@ -0,0 +1,95 @@
+package com.mikhail_dubov.nhs;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class JsonWriterTest {
+
+    private static int failures = 0;
+
+	/**
+	 * Checks that the answers streamed by JsonWriter, and the ones pre-serialized in a snapshot
+	 * (see MappedNode), are byte-identical to json-simple's toString().
+	 */
+    public static void main(String[] args) throws FileNotFoundException, IOException, ParseException {
+        JSONObject data = (JSONObject) new JSONParser().parse(new FileReader("data/data.json"));
+
+        StringWriter out = new StringWriter();
+        JsonWriter.write(data, out);
+        check("the whole data", data.toString(), out.toString());
+        List<Object> values = Arrays.<Object>asList(
+            "a\"b\\c/d\b\f\n\r\t\u0001\u007f\u0090\u2000\u20FF\u2100\u00E9\u20AC\uD83D\uDE00",
+            1.5, Double.NaN, 2.5f, Float.POSITIVE_INFINITY, 3L, true, null, new JSONObject());
+        out = new StringWriter();
+        JsonWriter.write(values, out);
+        check("special values", JSONValue.toJSONString(values), out.toString());
+
+        List<String> queries = new ArrayList<String>();
+        for (Object condition : data.keySet()) {
+            queries.add((String) condition);
+            queries.add("What are the symptoms of " + condition + "?");
+        }
+        QuestionAnswerer qa = new QuestionAnswerer("data/data.json", "data/stopwords.txt");
+        checkAnswers("JSON data", qa, queries);
+
+        File snapshot = File.createTempFile("nhs", ".snapshot");
+        snapshot.deleteOnExit();
+        qa.writeSnapshot(snapshot.getPath());
+        for (boolean mapTexts : new boolean[] {false, true}) {
+            String name = mapTexts ? "snapshot with mapped texts" : "snapshot";
+            JSONObject snapshotData = CorpusSnapshot.read(snapshot.getPath(), mapTexts).getData();
+            for (Object key : data.keySet()) {
+                JSONObject condition = (JSONObject) data.get(key);
+                MappedNode node = (MappedNode) snapshotData.get(key);
+                check(name + ": " + key, condition.toString(), node.toJSONString());
+                for (Object section : condition.keySet()) {
+                    if (condition.get(section) instanceof JSONObject) {
+                        check(name + ": " + key + " / " + section, condition.get(section).toString(),
+                              ((MappedNode) node.get(section)).toJSONString());
+                    }
+                }
+            }
+            checkAnswers(name, new QuestionAnswerer(snapshot.getPath(), "data/stopwords.txt",
+                                                    new AnswererOptions().setMapTexts(mapTexts)), queries);
+        }
+        System.out.println(queries.size() + " queries checked, " + failures + " failures");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void checkAnswers(String name, QuestionAnswerer qa, List<String> queries)
+            throws IOException {
+        for (String query : queries) {
+            String expected = qa.answer(query).toString();
+            StringWriter out = new StringWriter();
+            qa.answer(query, out);
+            check(name + ": \"" + query + "\" streamed", expected, out.toString());
+            check(name + ": \"" + query + "\" serialized", expected, new String(qa.answerJson(query), "UTF-8"));
+        }
+    }
+
+    private static void check(String name, String expected, String actual) {
+        if (! expected.equals(actual)) {
+            System.out.println("FAILED: " + name + ": expected " + abbreviate(expected)
+                               + ", got " + abbreviate(actual));
+            failures++;
+        }
+    }
+
+    private static String abbreviate(String json) {
+        return (json.length() > 100) ? json.substring(0, 100) + "..." : json;
+    }
+
+}
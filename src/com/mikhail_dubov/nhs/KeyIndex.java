@@ -0,0 +1,289 @@
+package com.mikhail_dubov.nhs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Inverted index over the keys of a JSON object from the NHS data, i.e. either
+ * over the conditions or over the sections of a single condition.
+ *
+ * Every key is stored as the sorted ids of its stemmed terms (see Vocabulary), and every
+ * term is mapped to the set of the keys containing it, as a bitset over the positions of
+ * the keys. The number of query words in every key is then computed for 64 keys at once
+ * with bitwise operations (~1,800 conditions fit into 29 longs). The index mirrors the JSON
+ * tree: each key may have a child index over the keys of its value.
+ * All the arrays are built once at load time and never modified afterwards.
+ *
+ * NOTE: Plain bitsets are both the smallest and the fastest for this amount of data.
+ *       A much larger corpus would rather need compressed ones (e.g. Roaring bitmaps).
+ *
+ * @author Mikhail Dubov
+ */
+class KeyIndex {
+
+    private final String[] keys;
+    private final Object[] values;
+    private final KeyIndex[] children;
+    // Term ids of each key, sorted
+    private final int[][] bags;
+    // Terms appearing in the keys (sorted), and the bitsets of the keys containing them
+    private final int[] terms;
+    private final long[][] bitsets;
+
+    /**
+     * Builds the index for the given JSON object.
+     *
+     * @param data The JSON object whose keys should be indexed.
+     * @param keyBags Preprocessed keys (bags of words), must contain all the indexed keys.
+     * @param vocabulary Ids of the terms, must contain all the terms of the indexed keys.
+     * @param levels How many levels of the JSON tree to index (1 = only the keys of data).
+     */
+    KeyIndex(JSONObject data, Map<String, Set<String>> keyBags, Vocabulary vocabulary, int levels) {
+        // Sort keys by length once and for all, so that the position of a key also
+        // defines its priority: the search should start with simplest possible things.
+        // NOTE: The sort is stable, so keys of the same length keep the JSON object order.
+        List<String> keysSortedByLength = new ArrayList<String>();
+        for (Object key : data.keySet()) {
+            keysSortedByLength.add((String) key);
+        }
+        Collections.sort(keysSortedByLength, new LengthComparator());
+        
+        int size = keysSortedByLength.size();
+        this.keys = keysSortedByLength.toArray(new String[size]);
+        this.values = new Object[size];
+        this.children = (levels > 1) ? new KeyIndex[size] : null;
+        this.bags = new int[size][];
+        int numTerms = 0;
+        for (int pos = 0; pos < size; pos++) {
+            this.values[pos] = data.get(this.keys[pos]);
+            if (this.children != null && this.values[pos] instanceof JSONObject) {
+                this.children[pos] = new KeyIndex((JSONObject) this.values[pos], keyBags,
+                                                  vocabulary, levels - 1);
+            }
+            this.bags[pos] = vocabulary.ids(keyBags.get(this.keys[pos]));
+            numTerms += this.bags[pos].length;
+        }
+        int[] allTerms = new int[numTerms];
+        numTerms = 0;
+        for (int[] bag : this.bags) {
+            System.arraycopy(bag, 0, allTerms, numTerms, bag.length);
+            numTerms += bag.length;
+        }
+        this.terms = Vocabulary.sortedDistinct(allTerms, numTerms);
+        this.bitsets = new long[this.terms.length][(size + 63) >>> 6];
+        for (int pos = 0; pos < size; pos++) {
+            for (int term : this.bags[pos]) {
+                this.bitsets[Arrays.binarySearch(this.terms, term)][pos >>> 6] |= 1L << pos;
+            }
+        }
+    }
+
+    /**
+     * Finds the key containing the most words from the query. Among the keys with
+     * the same number of common words, the shortest one wins (this is important
+     * e.g. not to go to "oesophageal cancer" when the query is just about cancer
+     * in general), and then the one that comes first in the JSON object.
+     *
+     * @param keywords ids of the keywords extracted from the query, sorted and distinct.
+     * @return Position of the best-matching key, or -1 if no key shares a word with the query.
+     */
+    int bestMatch(int[] keywords) {
+        long[][] slices = countSlices(keywords);
+        if (slices == null) {
+            return -1;
+        }
+        // Keep the keys with the highest counts, from the highest bit of the counts down
+        long[] best = union(slices);
+        long[] candidates = new long[best.length];
+        for (int bit = slices.length - 1; bit >= 0; bit--) {
+            boolean found = false;
+            for (int i = 0; i < best.length; i++) {
+                candidates[i] = best[i] & slices[bit][i];
+                found |= (candidates[i] != 0);
+            }
+            if (found) {
+                long[] swap = best;
+                best = candidates;
+                candidates = swap;
+            }
+        }
+        // The keys are sorted by priority, so the first of them wins
+        for (int i = 0; i < best.length; i++) {
+            if (best[i] != 0) {
+                return (i << 6) + Long.numberOfTrailingZeros(best[i]);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Groups the keys sharing words with the query by the number of common words.
+     * Within a group, the keys are in the order of their priority (see bestMatch()),
+     * so a ranking never needs to sort the candidates.
+     *
+     * @param keywords ids of the keywords extracted from the query, sorted and distinct.
+     * @return An array whose c-th element contains the positions of the keys having
+     *         exactly c words in common with the query, in increasing order.
+     */
+    int[][] matchesByCount(int[] keywords) {
+        long[][] slices = countSlices(keywords);
+        if (slices == null) {
+            return new int[][] { new int[0] };
+        }
+        long[] union = union(slices);
+        int numCandidates = 0;
+        for (long word : union) {
+            numCandidates += Long.bitCount(word);
+        }
+        // Visit the candidates in the order of their positions, reading their counts
+        int[] candidates = new int[numCandidates];
+        int[] counts = new int[numCandidates];
+        int[] groupSizes = new int[(1 << slices.length)];
+        numCandidates = 0;
+        for (int i = 0; i < union.length; i++) {
+            for (long word = union[i]; word != 0; word &= word - 1) {
+                int bit = Long.numberOfTrailingZeros(word);
+                int count = 0;
+                for (int slice = 0; slice < slices.length; slice++) {
+                    count |= (int) ((slices[slice][i] >>> bit) & 1) << slice;
+                }
+                candidates[numCandidates] = (i << 6) + bit;
+                counts[numCandidates] = count;
+                groupSizes[count]++;
+                numCandidates++;
+            }
+        }
+        // Distribute the candidates into the groups, keeping their order
+        int maxCount = groupSizes.length - 1;
+        while (maxCount > 0 && groupSizes[maxCount] == 0) {
+            maxCount--;
+        }
+        int[][] groups = new int[maxCount + 1][];
+        groups[0] = new int[0];
+        for (int count = 1; count <= maxCount; count++) {
+            groups[count] = new int[groupSizes[count]];
+            groupSizes[count] = 0;
+        }
+        for (int i = 0; i < numCandidates; i++) {
+            groups[counts[i]][groupSizes[counts[i]]++] = candidates[i];
+        }
+        return groups;
+    }
+
+    /**
+     * Counts how many of the query terms every key contains. The counts are bit-sliced:
+     * the b-th slice holds the b-th bit of the count of every key, so that adding a term
+     * to all the counts only takes a few bitwise operations per 64 keys.
+     *
+     * @param keywords ids of the keywords extracted from the query, sorted and distinct.
+     * @return The slices, from the lowest bit of the counts, or null if no key contains
+     *         any of the terms.
+     */
+    private long[][] countSlices(int[] keywords) {
+        long[][] termBitsets = new long[keywords.length][];
+        int numBitsets = 0;
+        for (int keyword : keywords) {
+            int term = Arrays.binarySearch(this.terms, keyword);
+            if (term >= 0) {
+                termBitsets[numBitsets++] = this.bitsets[term];
+            }
+        }
+        if (numBitsets == 0) {
+            return null;
+        }
+        int numWords = termBitsets[0].length;
+        long[][] slices = new long[32 - Integer.numberOfLeadingZeros(numBitsets)][numWords];
+        for (int t = 0; t < numBitsets; t++) {
+            for (int i = 0; i < numWords; i++) {
+                // Ripple-carry addition of one bit to every count
+                long carry = termBitsets[t][i];
+                for (int slice = 0; carry != 0; slice++) {
+                    long sum = slices[slice][i] ^ carry;
+                    carry &= slices[slice][i];
+                    slices[slice][i] = sum;
+                }
+            }
+        }
+        return slices;
+    }
+
+    /**
+     * @return The bitset of the keys with a non-zero count.
+     */
+    private static long[] union(long[][] slices) {
+        long[] union = new long[slices[0].length];
+        for (long[] slice : slices) {
+            for (int i = 0; i < union.length; i++) {
+                union[i] |= slice[i];
+            }
+        }
+        return union;
+    }
+
+    /**
+     * @return Positions of the keys containing the term, in increasing order.
+     */
+    int[] positions(int term) {
+        int index = Arrays.binarySearch(this.terms, term);
+        if (index < 0) {
+            return new int[0];
+        }
+        long[] bitset = this.bitsets[index];
+        int numPositions = 0;
+        for (long word : bitset) {
+            numPositions += Long.bitCount(word);
+        }
+        int[] positions = new int[numPositions];
+        numPositions = 0;
+        for (int i = 0; i < bitset.length; i++) {
+            for (long word = bitset[i]; word != 0; word &= word - 1) {
+                positions[numPositions++] = (i << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * @return Ids of the terms of the key at the given position, sorted.
+     */
+    int[] bag(int pos) {
+        return this.bags[pos];
+    }
+
+    /**
+     * @return Number of indexed keys.
+     */
+    int size() {
+        return this.keys.length;
+    }
+
+    String key(int pos) {
+        return this.keys[pos];
+    }
+
+    Object value(int pos) {
+        return this.values[pos];
+    }
+
+    /**
+     * @return The index over the keys of the value at the given position, or null
+     *         if this is the deepest indexed level or the value is not a JSON object.
+     */
+    KeyIndex child(int pos) {
+        return (this.children != null) ? this.children[pos] : null;
+    }
+
+    private static class LengthComparator implements Comparator<String> {
+
+        public int compare(String s1, String s2) {
+            return s1.length() - s2.length();
+        }
+    }
+}
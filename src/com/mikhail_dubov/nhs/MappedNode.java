@@ -0,0 +1,83 @@
+package com.mikhail_dubov.nhs;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Condition or section of the NHS data loaded from a snapshot, i.e. one of the possible
+ * responses, whose JSON serialization has been computed when the snapshot was built.
+ * Serializing the node only copies (or decodes) these bytes from the mapped file,
+ * instead of walking the whole subtree and escaping all of its texts.
+ *
+ * NOTE: The serialization is fixed, so the node must not be modified.
+ *
+ * @author Mikhail Dubov
+ */
+public class MappedNode extends JSONObject {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient ByteBuffer buffer;
+    private final int offset;
+    private final int length;
+
+    /**
+     * @param buffer The mapped snapshot file (shared, never modified).
+     * @param offset Position of the UTF-8 JSON of the node in the buffer.
+     * @param length Number of bytes of the JSON of the node.
+     */
+    MappedNode(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @return true if the JSON of the node is read from a mapped file (rather than from the heap).
+     */
+    boolean isMapped() {
+        return this.buffer instanceof MappedByteBuffer;
+    }
+
+    /**
+     * @return Number of bytes of the UTF-8 JSON of the node.
+     */
+    public int byteLength() {
+        return this.length;
+    }
+
+    /**
+     * Copies the UTF-8 JSON of the node.
+     *
+     * @param dst The array to copy to.
+     * @param pos Position in dst to copy the first byte to.
+     */
+    public void copyJson(byte[] dst, int pos) {
+        // NOTE: We work on a duplicate to be safe with concurrent readers.
+        ByteBuffer view = this.buffer.duplicate();
+        view.position(this.offset);
+        view.get(dst, pos, this.length);
+    }
+
+    @Override
+    public String toJSONString() {
+        byte[] bytes = new byte[this.length];
+        copyJson(bytes, 0);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void writeJSONString(Writer out) throws IOException {
+        out.write(toJSONString());
+    }
+
+    @Override
+    public String toString() {
+        return toJSONString();
+    }
+}
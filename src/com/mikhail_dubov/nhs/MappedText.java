@@ -0,0 +1,66 @@
+package com.mikhail_dubov.nhs;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.json.simple.JSONAware;
+import org.json.simple.JSONStreamAware;
+import org.json.simple.JSONValue;
+
+/**
+ * Text stored as UTF-8 in a memory-mapped snapshot file, that is decoded only
+ * when it is actually needed, i.e. when a response containing it gets serialized.
+ *
+ * It serializes to exactly the same JSON as the corresponding String would.
+ *
+ * @author Mikhail Dubov
+ */
+public class MappedText implements JSONAware, JSONStreamAware {
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int length;
+
+    /**
+     * @param buffer The mapped snapshot file (shared, never modified).
+     * @param offset Position of the UTF-8 bytes of the text in the buffer.
+     * @param length Number of UTF-8 bytes of the text.
+     */
+    MappedText(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @return Number of UTF-8 bytes of the text.
+     */
+    public int byteLength() {
+        return this.length;
+    }
+
+    /**
+     * Decodes the text from the mapped file.
+     */
+    @Override
+    public String toString() {
+        // NOTE: We work on a duplicate to be safe with concurrent readers.
+        ByteBuffer view = this.buffer.duplicate();
+        view.position(this.offset);
+        byte[] bytes = new byte[this.length];
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toJSONString() {
+        return "\"" + JSONValue.escape(toString()) + "\"";
+    }
+
+    @Override
+    public void writeJSONString(Writer out) throws IOException {
+        JsonWriter.writeString(toString(), out);
+    }
+}
@@ -0,0 +1,125 @@
+package com.mikhail_dubov.nhs;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Transforms strings (queries / JSON keys) into "bags of words": tokenization,
+ * stopwords filtering and stemming.
+ *
+ * @author Mikhail Dubov
+ */
+class Preprocessor {
+
+    private final Set<String> stopwords;
+    private final Tokenizer tokenizer;
+    private final StemCache stemCache;
+
+    /**
+     * @param stopwords English stopwords to filter out.
+     * @param tokenizer Tokenizer splitting the strings into words.
+     * @param stemCache Cache of the word stems.
+     */
+    Preprocessor(Set<String> stopwords, Tokenizer tokenizer, StemCache stemCache) {
+        this.stopwords = stopwords;
+        this.tokenizer = tokenizer;
+        this.stemCache = stemCache;
+    }
+
+    /**
+     * Loads a list of stopwords, one per line.
+     *
+     * @param stopwordsPath Path to a text file containing English Stopwords.
+     * @return The set of stopwords.
+     * @throws FileNotFoundException If the file does not exist.
+     * @throws IOException If there were problems reading from the file.
+     */
+    static Set<String> loadStopwords(String stopwordsPath) throws FileNotFoundException, IOException {
+        Set<String> stopwords = new HashSet<String>();
+        BufferedReader in = new BufferedReader(new FileReader(stopwordsPath));
+        String word;
+        while((word = in.readLine()) != null){
+            stopwords.add(word);
+        }
+        in.close();
+        return stopwords;
+    }
+
+    /**
+     * Transforms the input string (query / JSON key) into a "bag of words",
+     * also filtering stopwords and performing stemming.
+     *
+     * Example: "What are the Symptoms of cancer?" -> {"symptom", "cancer"}.
+     *
+     * @param str The input string.
+     * @return A set of tokens.
+     */
+    Set<String> bagOfWords(String str) {
+        HashSet<String> bagOfWords = new HashSet<String>();
+        preprocess(str, true, bagOfWords);
+        return bagOfWords;
+    }
+
+    /**
+     * Transforms the input string into the sequence of its words, processed like
+     * in bagOfWords() but keeping their order and the repeated words.
+     *
+     * Example: "What are the Symptoms of cancer?" -> ["symptom", "cancer"].
+     *
+     * @param str The input string.
+     * @return The list of words, in order of appearance.
+     */
+    List<String> wordSequence(String str) {
+        List<String> words = new ArrayList<String>();
+        preprocess(str, true, words);
+        return words;
+    }
+
+    /**
+     * Transforms a text into the sequence of its terms, filtering stopwords and
+     * performing stemming like bagOfWords() does, but keeping the repeated terms
+     * and the text in brackets.
+     *
+     * @param str The input text.
+     * @return The list of terms, in order of appearance.
+     */
+    List<String> terms(String str) {
+        List<String> terms = new ArrayList<String>();
+        preprocess(str, false, terms);
+        return terms;
+    }
+
+    private void preprocess(String str, boolean skipBrackets, Collection<String> out) {
+        boolean insideBrackets = false;
+        for (String token : this.tokenizer.tokenize(str.toLowerCase())) {
+            // Omit text in brackets
+            if (token.equals("-LRB-")) {
+            	insideBrackets = skipBrackets;
+            } else if (token.equals("-RRB-")) {
+            	insideBrackets = false;
+            }
+            // Filter out stopwords + 1-character words (to get rid of punctuation)
+            if (! this.stopwords.contains(token)
+            		&& token.length() >= 2
+            		&& ! insideBrackets
+            		&& (skipBrackets || ! isBracket(token))) {
+                out.add(this.stemCache.stem(token));
+            }
+        }
+    }
+
+    /**
+     * @return true for the bracket tokens like "-LRB-" (left round bracket) or "-RSB-".
+     */
+    private static boolean isBracket(String token) {
+        return token.length() == 5 && token.charAt(0) == '-' && token.charAt(4) == '-'
+               && (token.charAt(1) == 'L' || token.charAt(1) == 'R') && token.charAt(3) == 'B';
+    }
+}
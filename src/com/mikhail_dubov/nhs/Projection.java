@@ -0,0 +1,94 @@
+package com.mikhail_dubov.nhs;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Selects the parts of a response to serialize, for the callers that only need e.g.
+ * the URL and one subsection instead of all the sections of a condition.
+ *
+ * A field of a JSON object is kept with all its content if its name is one of the
+ * selected fields, and otherwise only with the selected fields found deeper in it (so the
+ * objects without any of them are dropped). E.g. with the fields "URL" and "Symptoms",
+ * the response for a condition keeps its "Symptoms" section and the URL of the others.
+ *
+ * @author Mikhail Dubov
+ */
+public class Projection {
+
+    private Set<String> fields = null;
+    private int maxTextLength = -1;
+
+    /**
+     * @param fields Names of the fields to keep, e.g. "URL", "Title" or a subsection name
+     *               (case-sensitive). All the fields are kept by default (null).
+     */
+    public Projection setFields(Collection<String> fields) {
+        this.fields = (fields != null) ? Collections.unmodifiableSet(new HashSet<String>(fields)) : null;
+        return this;
+    }
+
+    public Set<String> getFields() {
+        return this.fields;
+    }
+
+    /**
+     * @param maxTextLength Maximum number of characters of every text, the longer texts
+     *                      are cut (-1 for no limit, the default).
+     */
+    public Projection setMaxTextLength(int maxTextLength) {
+        this.maxTextLength = maxTextLength;
+        return this;
+    }
+
+    public int getMaxTextLength() {
+        return this.maxTextLength;
+    }
+
+    /**
+     * @return true if the field should be kept with all its content.
+     */
+    boolean selects(Object field) {
+        return this.fields == null || this.fields.contains(field);
+    }
+
+    /**
+     * @return true if the value is an object containing some selected field (at any depth).
+     */
+    boolean selectsWithin(Object value) {
+        if (! (value instanceof Map)) {
+            return false;
+        }
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            if (selects(entry.getKey()) || selectsWithin(entry.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The text, cut to the maximum length if needed.
+     */
+    String cut(String text) {
+        if (this.maxTextLength < 0 || text.length() <= this.maxTextLength) {
+            return text;
+        }
+        int end = this.maxTextLength;
+        // NOTE: Never split a surrogate pair, that would not be valid UTF-16 anymore.
+        if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+
+    /**
+     * @return true if the projection keeps the values as they are.
+     */
+    boolean isIdentity() {
+        return this.fields == null && this.maxTextLength < 0;
+    }
+}
@@ -0,0 +1,125 @@
+package com.mikhail_dubov.nhs;
+
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class ProjectionTest {
+
+    private static int failures = 0;
+
+	/**
+	 * Checks that the projected replies keep exactly the selected fields (and the objects
+	 * containing them) of the whole replies, with the texts cut to the maximum length.
+	 */
+    public static void main(String[] args) throws FileNotFoundException, IOException, ParseException {
+        JSONObject data = (JSONObject) new JSONParser().parse(new FileReader("data/data.json"));
+        List<String> names = new ArrayList<String>();
+        for (Object condition : data.keySet()) {
+            names.add((String) condition);
+        }
+        Collections.sort(names);
+        List<String> queries = new ArrayList<String>(Arrays.asList(
+            "cancer", "What are the symptoms of cancer?", "treatments for allergy", "glorbination"));
+        for (int i = 0; i < names.size(); i += 10) {
+            queries.add(names.get(i));
+            queries.add("What are the symptoms of " + names.get(i) + "?");
+        }
+
+        QuestionAnswerer qa = new QuestionAnswerer("data/data.json", "data/stopwords.txt");
+        List<String> fields = Arrays.asList("URL", "Symptoms");
+        for (String query : queries) {
+            Object response = qa.answer(query).get("response");
+            check(query, "fields", response, fields, -1,
+                  qa.answerJson(query, new Projection().setFields(fields)));
+            check(query, "maxlen", response, null, 200,
+                  qa.answerJson(query, new Projection().setMaxTextLength(200)));
+            check(query, "fields and maxlen", response, fields, 20,
+                  qa.answerJson(query, new Projection().setFields(fields).setMaxTextLength(20)));
+        }
+
+        // The whole Symptoms section of the condition, and only the URLs of the others
+        String query = "oesophageal cancer";
+        Map<?, ?> condition = (Map<?, ?>) ((Map<?, ?>) parse(
+            qa.answerJson(query, new Projection().setFields(fields)))).get("response");
+        Map<?, ?> expected = (Map<?, ?>) qa.answer(query).get("response");
+        for (Map.Entry<?, ?> section : condition.entrySet()) {
+            Object value = section.getValue();
+            boolean urlOnly = value instanceof Map && ((Map<?, ?>) value).keySet().equals(
+                Collections.singleton("URL"));
+            if (! "Symptoms".equals(section.getKey()) && ! "URL".equals(section.getKey()) && ! urlOnly) {
+                System.out.println("FAILED: \"" + query + "\": unexpected field " + section.getKey());
+                failures++;
+            }
+        }
+        if (condition.get("Symptoms") == null
+                || ! condition.get("Symptoms").equals(parse(JSONValue.toJSONString(expected.get("Symptoms"))))) {
+            System.out.println("FAILED: \"" + query + "\": the Symptoms section is not kept whole");
+            failures++;
+        }
+        System.out.println(queries.size() + " queries checked, " + failures + " failures");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void check(String query, String name, Object response, List<String> fields,
+                              int maxLength, byte[] actual) throws IOException {
+        JSONObject reply = new JSONObject();
+        reply.put("query", query);
+        Object projected = project(response, fields, maxLength, fields == null);
+        // The response itself is always kept, even without any selected field
+        reply.put("response", (projected == null && response instanceof Map) ? new JSONObject() : projected);
+        Object expected = parse(reply.toString());
+        if (! expected.equals(parse(actual))) {
+            System.out.println("FAILED: \"" + query + "\" with " + name + ": got "
+                               + abbreviate(new String(actual, "UTF-8")));
+            failures++;
+        }
+    }
+
+    /**
+     * @return A copy of the value keeping the selected fields (all if selected), or null
+     *         if an object contains no selected field.
+     */
+    private static Object project(Object value, List<String> fields, int maxLength, boolean selected) {
+        if (value instanceof String) {
+            String text = (String) value;
+            return (maxLength >= 0 && text.length() > maxLength) ? text.substring(0, maxLength) : text;
+        } else if (value instanceof Map) {
+            JSONObject projected = new JSONObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                boolean fieldSelected = selected || fields.contains(entry.getKey());
+                Object field = project(entry.getValue(), fields, maxLength, fieldSelected);
+                if (fieldSelected || field instanceof Map) {
+                    projected.put(entry.getKey(), field);
+                }
+            }
+            return (selected || ! projected.isEmpty()) ? projected : null;
+        }
+        return selected ? value : null;
+    }
+
+    private static Object parse(byte[] json) throws IOException {
+        return parse(new String(json, "UTF-8"));
+    }
+
+    private static Object parse(String json) {
+        return JSONValue.parse(json);
+    }
+
+    private static String abbreviate(String json) {
+        return (json.length() > 100) ? json.substring(0, 100) + "..." : json;
+    }
+
+}
@@ -1,26 +1,34 @@
 package com.mikhail_dubov.nhs;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
+import org.json.simple.JSONValue;
 import org.json.simple.parser.ParseException;
 
-import com.mikhail_dubov.nhs.lib.Stemmer;
-
-import edu.stanford.nlp.ling.Word;
-import edu.stanford.nlp.process.PTBTokenizer;
-
 /**
  * Question Answerer that can handle queries about conditions, symptoms, treatments etc.
  * written in English. It uses the NHS data to answer those queries.
@@ -29,13 +37,44 @@ import edu.stanford.nlp.process.PTBTokenizer;
  */
 public class QuestionAnswerer {
     
-    private JSONObject nhsData;
-    private Set<String> stopwords;
+    // Tuning options, also used to load the new versions of the NHS data
+    private final AnswererOptions options;
+    // Cache of the word stems, shared by all the versions of the NHS data
+    private final StemCache stemCache;
+    // The NHS data with its indexes, replaced at once by reload()
+    private volatile AnswerEngine engine;
+    // Where the current NHS data and stopwords were loaded from (guarded by reloadLock)
+    private String dataPath;
+    private String stopwordsPath;
+    // Only one reload at a time
+    private final Object reloadLock = new Object();
+    // Threads answering the queries of answerAll(), created on first use unless provided
+    private ExecutorService batchExecutor;
+    
+    // Maximum number of queries answered by one task of answerAll()
+    private static final int MAX_QUERIES_PER_TASK = 64;
+    // Number of queries of a stream that answerAll() answers at once
+    private static final int STREAM_BATCH_SIZE = 4096;
+    // Queries answered by a new version of the NHS data before it starts serving,
+    // in addition to the names of its first conditions
+    private static final String[] WARM_UP_QUERIES = {
+        "What are the symptoms of cancer?",
+        "What are the symptoms of oesophageal cancer?",
+        "treatments for allergy",
+        "itchy red rash after eating nuts"
+    };
+    private static final int WARM_UP_CONDITIONS = 100;
+    // Beginning of the serialized replies (see reply()).
+    // NOTE: The response comes before the query, as this is the order in which JSONObject
+    //       (a HashMap) serializes these two keys, so that answerJson(query) is the same
+    //       as answer(query).toString().
+    private static final byte[] REPLY_PREFIX = "{\"response\":".getBytes(StandardCharsets.UTF_8);
     
     /**
      * Initializes the Question Answerer.
      *
-     * @param dataPath Path to the data scraped from NHS by NhsScraper.
+     * @param dataPath Path to the data scraped from NHS by NhsScraper, either in JSON format
+     *                 or as a binary snapshot built by CorpusSnapshot (which loads much faster).
      * @param stopwordsPath Path to a text file containing English Stopwords.
      * @throws FileNotFoundException If one of the files does not exist.
      * @throws IOException If there were problems reading from the input files.
@@ -43,19 +82,113 @@ public class QuestionAnswerer {
      */
     public QuestionAnswerer(String dataPath, String stopwordsPath)
             throws FileNotFoundException, IOException, ParseException {
-        // Load the NHS data that has been scraped earlier
-        JSONParser parser = new JSONParser();
-        Object obj = parser.parse(new FileReader(dataPath));
-        this.nhsData = (JSONObject) obj;
-        
-        // Also load the list of English stopwords, needed to process the queries
-        this.stopwords = new HashSet<String>();
-        BufferedReader in = new BufferedReader(new FileReader(stopwordsPath));
-        String word;
-        while((word = in.readLine()) != null){
-            this.stopwords.add(word);
+        this(dataPath, stopwordsPath, new AnswererOptions());
+    }
+    
+    /**
+     * Initializes the Question Answerer.
+     *
+     * @param dataPath Path to the data scraped from NHS by NhsScraper, either in JSON format
+     *                 or as a binary snapshot built by CorpusSnapshot (which loads much faster).
+     * @param stopwordsPath Path to a text file containing English Stopwords.
+     * @param options Tuning options, e.g. for the memory usage or the caches.
+     * @throws FileNotFoundException If one of the files does not exist.
+     * @throws IOException If there were problems reading from the input files.
+     * @throws ParseException If the data is not a valid JSON string.
+     */
+    public QuestionAnswerer(String dataPath, String stopwordsPath, AnswererOptions options)
+            throws FileNotFoundException, IOException, ParseException {
+        this.options = options;
+        this.stemCache = new StemCache(options.getStemCacheSize(), options.getStemCachePolicy());
+        this.batchExecutor = options.getBatchExecutor();
+        this.engine = new AnswerEngine(dataPath, stopwordsPath, options, this.stemCache);
+        this.dataPath = dataPath;
+        this.stopwordsPath = stopwordsPath;
+    }
+    
+    /**
+     * Loads a new version of the NHS data (and of the stopwords) without interrupting
+     * the service: the new data gets loaded and indexed while the queries are still answered
+     * from the current one, then answers a few warm-up queries, and only then replaces
+     * the current data at once. The queries in progress finish on the data they started on.
+     *
+     * If the new data is in JSON format and the stopwords did not change, only the conditions
+     * that differ from the current data get preprocessed and indexed again, so that reloading
+     * after a refresh of the scraped data that touched a few conditions is quick.
+     *
+     * If the new data fails to load, the current data stays in use.
+     * NOTE: The answer cache starts empty (apart from the warm-up queries) with the new data.
+     *
+     * @param dataPath Path to the new NHS data, either in JSON format or as a binary snapshot.
+     * @param stopwordsPath Path to a text file containing English Stopwords.
+     * @throws FileNotFoundException If one of the files does not exist.
+     * @throws IOException If there were problems reading from the input files.
+     * @throws ParseException If the data is not a valid JSON string.
+     */
+    public void reload(String dataPath, String stopwordsPath)
+            throws FileNotFoundException, IOException, ParseException {
+        synchronized (this.reloadLock) {
+            AnswerEngine next = new AnswerEngine(this.engine, dataPath, stopwordsPath,
+                                                 this.options, this.stemCache);
+            warmUp(next);
+            this.engine = next;
+            this.dataPath = dataPath;
+            this.stopwordsPath = stopwordsPath;
+        }
+    }
+    
+    /**
+     * Loads the NHS data and the stopwords again from the same files, e.g. after the scraper
+     * has updated them (see reload(dataPath, stopwordsPath)).
+     *
+     * @throws FileNotFoundException If one of the files does not exist anymore.
+     * @throws IOException If there were problems reading from the input files.
+     * @throws ParseException If the data is not a valid JSON string.
+     */
+    public void reload() throws FileNotFoundException, IOException, ParseException {
+        synchronized (this.reloadLock) {
+            reload(this.dataPath, this.stopwordsPath);
+        }
+    }
+    
+    /**
+     * Answers the warm-up queries with the engine, so that its caches are filled
+     * and any problem with the data shows up before it serves.
+     */
+    private void warmUp(AnswerEngine engine) {
+        for (String query : WARM_UP_QUERIES) {
+            answerJson(engine, query);
         }
-        in.close();
+        for (int condition = 0; condition < Math.min(WARM_UP_CONDITIONS, engine.conditionIndex.size());
+             condition++) {
+            answerJson(engine, engine.conditionIndex.key(condition));
+        }
+    }
+    
+    /**
+     * Saves the NHS data together with the indexes into a binary snapshot,
+     * that can be passed instead of the JSON data to the constructor.
+     *
+     * @param path Path to the snapshot file.
+     * @throws IOException If there were problems writing to the file.
+     */
+    public void writeSnapshot(String path) throws IOException {
+        this.engine.writeSnapshot(path);
+    }
+    
+    /**
+     * @return The cache of word stems, e.g. to monitor its hit rate.
+     */
+    public StemCache getStemCache() {
+        return this.stemCache;
+    }
+    
+    /**
+     * @return The cache of serialized answers, e.g. to monitor its hit rate.
+     *         It is only valid for the currently loaded NHS data (a reload replaces it).
+     */
+    public BoundedCache<byte[]> getAnswerCache() {
+        return this.engine.answerCache;
     }
     
     /**
@@ -67,12 +200,12 @@ public class QuestionAnswerer {
      *         If the search was unsuccessul, null will be returned.
      */
     public JSONObject answer(String query) {
-        // Query preprocessing (tokenization, stopwords filtering, stemming)
-        Set<String> bagOfWords = preprocess(query);
+        // NOTE: The whole answer comes from the same version of the data.
+        AnswerEngine engine = this.engine;
+        // Query preprocessing (tokenization, stopwords filtering, stemming, typo correction)
+        int[] words = keywords(engine, query);
         
-        // Start the recursive search in the JSON tree for the "most specific" node
-        // with respect to the query.
-        Object response = search(this.nhsData, bagOfWords, 0);
+        Object response = respond(engine, words);
         JSONObject result = new JSONObject();
         result.put("query", query);
         result.put("response", response);
@@ -80,35 +213,463 @@ public class QuestionAnswerer {
     }
     
     /**
-     * Transforms the input string (query / JSON key) into a "bag of words",
-     * also filtering stopwords and performing stemming.
-     * 
-     * Example: "What are the Symptoms of cancer?" -> {"symptom", "cancer"}.
-     *
-     * @param str The input string.
-     * @return A set of tokens.
-     */
-    private Set<String> preprocess(String str) {
-        Iterator<Word> words = PTBTokenizer.newPTBTokenizer(new StringReader(str.toLowerCase()));
-        Stemmer stemmer = new Stemmer();
-        HashSet<String> bagOfWords = new HashSet<String>();
-        boolean insideBrackets = false;
-        while (words.hasNext()) {
-            Word token = words.next();
-            // Omit text in brackets
-            if (token.word().equals("-LRB-")) {
-            	insideBrackets = true;
-            } else if (token.word().equals("-RRB-")) {
-            	insideBrackets = false;
+     * Answers many queries at once, spreading them over the threads of the batch executor
+     * (see AnswererOptions.setBatchExecutor()). All the threads share the loaded NHS data
+     * and the caches, which are safe to use concurrently.
+     *
+     * @param queries Healthcare-related queries in English.
+     * @return The replies, as answer(query) would return them, in the order of the queries.
+     */
+    public List<JSONObject> answerAll(final List<String> queries) {
+        final JSONObject[] results = new JSONObject[queries.size()];
+        // Several tasks per thread, so that the threads finishing early can take more work
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int queriesPerTask = Math.max(1, Math.min(MAX_QUERIES_PER_TASK,
+                                                  queries.size() / (4 * parallelism)));
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int start = 0; start < queries.size(); start += queriesPerTask) {
+            final int from = start;
+            final int to = Math.min(start + queriesPerTask, queries.size());
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = from; i < to; i++) {
+                        results[i] = answer(queries.get(i));
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> future : getBatchExecutor().invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while answering the queries", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to answer the queries", e.getCause());
+        }
+        return Arrays.asList(results);
+    }
+    
+    /**
+     * Answers a stream of queries (e.g. the lines of a query log) like answerAll(List),
+     * reading the queries in batches so that they never have to be all in memory.
+     *
+     * @param queries Healthcare-related queries in English.
+     * @return A sequential stream of the replies, in the order of the queries. Closing it
+     *         closes the stream of the queries.
+     */
+    public Stream<JSONObject> answerAll(final Stream<String> queries) {
+        final Iterator<String> input = queries.iterator();
+        Iterator<JSONObject> output = new Iterator<JSONObject>() {
+            private Iterator<JSONObject> batch = Collections.<JSONObject>emptyIterator();
+            
+            @Override
+            public boolean hasNext() {
+                if (! this.batch.hasNext() && input.hasNext()) {
+                    List<String> batchQueries = new ArrayList<String>(STREAM_BATCH_SIZE);
+                    while (input.hasNext() && batchQueries.size() < STREAM_BATCH_SIZE) {
+                        batchQueries.add(input.next());
+                    }
+                    this.batch = answerAll(batchQueries).iterator();
+                }
+                return this.batch.hasNext();
             }
-            // Filter out stopwords + 1-character words (to get rid of punctuation)
-            if (! this.stopwords.contains(token.word())
-            		&& token.word().length() >= 2
-            		&& ! insideBrackets) {
-                bagOfWords.add(stemmer.stem(token.word()));
+            
+            @Override
+            public JSONObject next() {
+                if (! hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return this.batch.next();
             }
+        };
+        Spliterator<JSONObject> spliterator = Spliterators.spliteratorUnknownSize(
+                output, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+            @Override
+            public void run() {
+                queries.close();
+            }
+        });
+    }
+    
+    private synchronized ExecutorService getBatchExecutor() {
+        if (this.batchExecutor == null) {
+            // NOTE: The threads of a ForkJoinPool are daemon threads, so the pool
+            //       does not need to be shut down.
+            this.batchExecutor = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return this.batchExecutor;
+    }
+    
+    /**
+     * Answers a query writing the reply straight to the writer, the same as
+     * answer(query).toString() but without building the whole (possibly large,
+     * e.g. for "cancer") reply in memory first.
+     *
+     * @param query Healthcare-related query in English, e.g. "What are the symptoms of cancer?".
+     * @param out The writer to write the JSON reply to (it is neither flushed nor closed).
+     * @throws IOException If there were problems writing.
+     */
+    public void answer(String query, Writer out) throws IOException {
+        JsonWriter.write(answer(query), out);
+    }
+    
+    /**
+     * Answers a query writing only the selected parts of the reply to the writer,
+     * e.g. only the URLs or only one section of a condition. The reply has the same
+     * structure as the one of answer(query), with the excluded fields left out.
+     *
+     * @param query Healthcare-related query in English, e.g. "What are the symptoms of cancer?".
+     * @param projection The parts of the response to write.
+     * @param out The writer to write the JSON reply to (it is neither flushed nor closed).
+     * @throws IOException If there were problems writing.
+     */
+    public void answer(String query, Projection projection, Writer out) throws IOException {
+        if (projection.isIdentity()) {
+            answer(query, out);
+        } else {
+            // NOTE: Unlike the whole replies, the projected ones are built in memory first.
+            out.write(new String(answerJson(query, projection), StandardCharsets.UTF_8));
+        }
+    }
+    
+    /**
+     * Answers a query with several alternative replies, ranked from the best to the worst.
+     *
+     * The nodes are ranked first by the number of query words in the name of the condition,
+     * then the conditions with as many words by their priority (the shortest name first),
+     * then by the number of query words in the name of the section. This is the order
+     * in which answer(query) looks for its reply, so the first answer is always that reply.
+     * When no name matches the query, the pages are ranked by their texts instead.
+     *
+     * @param query Healthcare-related query in English, e.g. "What are the symptoms of cancer?".
+     * @param k Maximum number of answers to return.
+     * @return Up to k answers (conditions or their sections) with their scores,
+     *         the best one first. Empty if the search was unsuccessful.
+     */
+    public List<RankedAnswer> answer(String query, int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("The number of answers must be positive");
+        }
+        AnswerEngine engine = this.engine;
+        return rank(engine, bag(keywords(engine, query)), k);
+    }
+    
+    /**
+     * Suggests the names of the conditions and sections starting with what the user
+     * has typed so far (ignoring the case), e.g. "Oesophageal cancer" for "oesoph".
+     * The suggestions are precomputed, so this is cheap enough to call on every keystroke.
+     *
+     * @param prefix Beginning of a condition or section name.
+     * @param n Maximum number of suggestions (at most 10 are returned).
+     * @return Up to n names, the most common ones first. Empty if no name starts with the prefix.
+     */
+    public List<String> complete(String prefix, int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("The number of suggestions must be positive");
+        }
+        return this.engine.autocompleter.complete(prefix, n);
+    }
+    
+    /**
+     * Answers a query providing only the selected parts of a serialized reply,
+     * the same as answer(query, projection, out) encoded in UTF-8.
+     *
+     * @param query Healthcare-related query in English, e.g. "What are the symptoms of cancer?".
+     * @param projection The parts of the response to include.
+     * @return JSON reply encoded in UTF-8.
+     */
+    public byte[] answerJson(String query, Projection projection) {
+        if (projection.isIdentity()) {
+            return answerJson(query);
+        }
+        // NOTE: The projected replies are not cached, as there are too many possible projections.
+        AnswerEngine engine = this.engine;
+        return reply(query, toJson(respond(engine, keywords(engine, query)), projection));
+    }
+    
+    /**
+     * Answers a query providing a serialized reply, the same as answer(query).toString()
+     * encoded in UTF-8. This is the method to use when the reply is sent as is, e.g. over
+     * HTTP, as the serialized responses are cached.
+     *
+     * Queries with the same bag of words (e.g. "What are flu symptoms?" and "symptoms of flu")
+     * have the same response, so they share one cache entry.
+     *
+     * @param query Healthcare-related query in English, e.g. "What are the symptoms of cancer?".
+     * @return JSON reply encoded in UTF-8.
+     */
+    public byte[] answerJson(String query) {
+        return answerJson(this.engine, query);
+    }
+    
+    private byte[] answerJson(AnswerEngine engine, String query) {
+        int[] words = keywords(engine, query);
+        String cacheKey = normalize(bag(words));
+        byte[] response = engine.answerCache.get(cacheKey);
+        if (response == null) {
+            Object node = respond(engine, words);
+            if (node instanceof MappedNode) {
+                // Pre-serialized in the snapshot, so it only has to be copied
+                response = new byte[((MappedNode) node).byteLength()];
+                ((MappedNode) node).copyJson(response, 0);
+            } else {
+                response = toJson(node, new Projection());
+            }
+            engine.answerCache.put(cacheKey, response);
+        }
+        return reply(query, response);
+    }
+    
+    /**
+     * Serializes (the selected parts of) a response.
+     *
+     * @param node The response, as given by respond().
+     * @param projection The parts of the response to include.
+     * @return JSON response encoded in UTF-8.
+     */
+    private static byte[] toJson(Object node, Projection projection) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+        try {
+            JsonWriter.write(node, projection, out);
+            out.flush();
+        } catch (IOException e) {
+            // Never happens when writing to memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Wraps a serialized response into a reply, the same as answer(query).toString()
+     * encoded in UTF-8 when the response is the whole one.
+     *
+     * @param query The query, as given.
+     * @param response JSON response encoded in UTF-8.
+     * @return JSON reply encoded in UTF-8.
+     */
+    private static byte[] reply(String query, byte[] response) {
+        byte[] suffix = (",\"query\":\"" + JSONValue.escape(query) + "\"}").getBytes(StandardCharsets.UTF_8);
+        byte[] result = new byte[REPLY_PREFIX.length + response.length + suffix.length];
+        System.arraycopy(REPLY_PREFIX, 0, result, 0, REPLY_PREFIX.length);
+        System.arraycopy(response, 0, result, REPLY_PREFIX.length, response.length);
+        System.arraycopy(suffix, 0, result, REPLY_PREFIX.length + response.length, suffix.length);
+        return result;
+    }
+    
+    /**
+     * Extracts the keywords from the query: the ids of its words (see Preprocessor.wordSequence()),
+     * where the words appearing neither in the keys nor in the texts are replaced by the closest
+     * terms of the keys.
+     *
+     * Example: "What are the symptons of diabetis?" -> ids of ["symptom", "diabet"].
+     *
+     * @param engine The NHS data to answer from.
+     * @param query The query.
+     * @return The ids of the words, in order of appearance (-1 for the unknown words).
+     */
+    private static int[] keywords(AnswerEngine engine, String query) {
+        List<String> words = engine.preprocessor.wordSequence(query);
+        int[] ids = new int[words.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = engine.vocabulary.id(words.get(i));
+            if (ids[i] < 0 && engine.spellingCorrector != null) {
+                String correction = engine.spellingCorrector.correct(words.get(i));
+                if (correction != null) {
+                    ids[i] = engine.vocabulary.id(correction);
+                }
+            }
+        }
+        return ids;
+    }
+    
+    /**
+     * @return The ids of the known keywords, sorted and distinct.
+     */
+    private static int[] bag(int[] keywords) {
+        int[] bag = new int[keywords.length];
+        int size = 0;
+        for (int id : keywords) {
+            if (id >= 0) {
+                bag[size++] = id;
+            }
+        }
+        return Vocabulary.sortedDistinct(bag, size);
+    }
+    
+    /**
+     * @return Canonical form of a query: the ids of its known terms, sorted and separated
+     *         by spaces (the unknown terms do not change the response).
+     */
+    private static String normalize(int[] bag) {
+        StringBuilder sb = new StringBuilder();
+        for (int id : bag) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(id);
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Finds the response to the query: the most specific node in the NHS data
+     * whose keys match the query or, if no key matches, the page whose text does.
+     *
+     * @param engine The NHS data to answer from.
+     * @param words ids of the keywords extracted from the query, in order.
+     * @return The response subtree (JSON object, or a text for a leaf of the data),
+     *         or null if nothing matches the query.
+     */
+    private static Object respond(AnswerEngine engine, int[] words) {
+        int[] keywords = bag(words);
+        // Start the recursive search in the JSON tree for the "most specific" node
+        // with respect to the query. Most queries mention a condition by its name,
+        // and then the automaton finds it without looking at the other conditions.
+        Object response;
+        int condition = engine.conditionMatcher.match(words);
+        if (condition >= 0) {
+            response = search(engine.conditionIndex.child(condition),
+                              (JSONObject) engine.conditionIndex.value(condition), keywords, 1);
+        } else {
+            response = search(engine.conditionIndex, engine.nhsData, keywords, 0);
+        }
+        if (response == null) {
+            // Nothing matches in the keys, so fall back to the full-text search
+            int doc = engine.bodyIndex.bestMatch(keywords);
+            if (doc >= 0) {
+                response = engine.conditionIndex.child(engine.bodyIndex.condition(doc))
+                                              .value(engine.bodyIndex.section(doc));
+            }
+        }
+        return response;
+    }
+    
+    /**
+     * Ranks the nodes of the NHS data (conditions and their sections) for the query.
+     *
+     * The conditions are visited from the highest number of common words down and, with as
+     * many words, in the order of KeyIndex.bestMatch(); the sections of each condition that
+     * match the query come in the same order, before the condition itself. The visit stops
+     * after k nodes, so only a few conditions get their sections matched, whatever the k.
+     *
+     * The score of a node is the number of query words in the condition name plus
+     * the fraction of the other query words in the section name (a condition alone gets 0
+     * for its section): the words of the condition name do not count twice, e.g. for "cancer"
+     * the "Skin cancer (melanoma)" section of "Symptoms of melanoma skin cancer" does not
+     * score higher than the "Cancer" condition.
+     *
+     * NOTE: Like answer(query), the visit commits to a condition before looking at its
+     *       sections, so a node may come before another one with a higher score: e.g. for
+     *       "symptoms of allergic rhinitis", the whole "Allergic rhinitis" condition (which
+     *       has no "Symptoms" section) comes before "Seasonal allergic rhinitis"/"Symptoms".
+     *
+     * @param engine The NHS data to answer from.
+     * @param keywords ids of the keywords extracted from the query, sorted and distinct.
+     * @param k Maximum number of answers to return.
+     * @return The best answers, the best one first.
+     */
+    private static List<RankedAnswer> rank(AnswerEngine engine, int[] keywords, int k) {
+        // NOTE: The list grows as needed, k may be much larger than the number of nodes.
+        List<RankedAnswer> answers = new ArrayList<RankedAnswer>();
+        double sectionWeight = 1.0 / (keywords.length + 1);
+        int[][] conditions = engine.conditionIndex.matchesByCount(keywords);
+        visit:
+        for (int conditionWords = conditions.length - 1; conditionWords > 0; conditionWords--) {
+            for (int condition : conditions[conditionWords]) {
+                String name = engine.conditionIndex.key(condition);
+                KeyIndex sections = engine.conditionIndex.child(condition);
+                int[] otherWords = Vocabulary.difference(keywords, engine.conditionIndex.bag(condition));
+                int[][] matches = sections.matchesByCount(keywords);
+                for (int sectionWords = matches.length - 1; sectionWords > 0; sectionWords--) {
+                    for (int section : matches[sectionWords]) {
+                        if (answers.size() == k) {
+                            break visit;
+                        }
+                        double score = conditionWords
+                                       + Vocabulary.countCommon(sections.bag(section), otherWords) * sectionWeight;
+                        answers.add(new RankedAnswer(name, sections.key(section), sections.value(section), score));
+                    }
+                }
+                if (answers.size() == k) {
+                    break visit;
+                }
+                // The condition itself, after all the sections matching the query
+                answers.add(new RankedAnswer(name, null, engine.conditionIndex.value(condition), conditionWords));
+            }
+        }
+        if (answers.isEmpty()) {
+            // Nothing matches in the keys, so fall back to the full-text search,
+            // keeping only the k best pages in a heap
+            PriorityQueue<Candidate> heap = new PriorityQueue<Candidate>();
+            float[] scores = engine.bodyIndex.scores(keywords);
+            for (int doc = 0; scores != null && doc < scores.length; doc++) {
+                if (scores[doc] > 0) {
+                    offer(heap, k, new Candidate(engine.bodyIndex.condition(doc),
+                                                 engine.bodyIndex.section(doc), scores[doc], doc));
+                }
+            }
+            // The heap returns the worst answers first
+            RankedAnswer[] pages = new RankedAnswer[heap.size()];
+            for (int i = pages.length - 1; i >= 0; i--) {
+                Candidate candidate = heap.poll();
+                KeyIndex sections = engine.conditionIndex.child(candidate.condition);
+                pages[i] = new RankedAnswer(engine.conditionIndex.key(candidate.condition),
+                                            sections.key(candidate.section),
+                                            sections.value(candidate.section), candidate.score);
+            }
+            answers.addAll(Arrays.asList(pages));
+        }
+        return answers;
+    }
+    
+    /**
+     * Adds the candidate to the heap of the k best ones, if it is good enough.
+     * The candidates must be offered in the order of their priority for equal scores.
+     */
+    private static void offer(PriorityQueue<Candidate> heap, int k, Candidate candidate) {
+        if (heap.size() < k) {
+            heap.add(candidate);
+        } else if (candidate.score > heap.peek().score) {
+            heap.poll();
+            heap.add(candidate);
+        }
+    }
+    
+    /**
+     * Page of the NHS data (a section of a condition) being ranked by its text.
+     * Candidates are ordered from the worst to the best.
+     */
+    private static class Candidate implements Comparable<Candidate> {
+        final int condition;
+        // Position of the section within the condition
+        final int section;
+        final double score;
+        // Order in which the candidates were offered, used to break the ties
+        final int order;
+        
+        Candidate(int condition, int section, double score, int order) {
+            this.condition = condition;
+            this.section = section;
+            this.score = score;
+            this.order = order;
+        }
+        
+        @Override
+        public int compareTo(Candidate other) {
+            if (this.score != other.score) {
+                return (this.score < other.score) ? -1 : 1;
+            }
+            return other.order - this.order;
         }
-        return bagOfWords;
     }
     
     /**
@@ -120,16 +681,17 @@ public class QuestionAnswerer {
      *
      * NOTE: Obviously, this can be improved in many ways, just to list a few:
      *         * Support query extension via synonyms etc.;
-     *         * Support typo corrections in the queries;
-     *         * Look not only at JSON keys but also at values (i.e. texts) while
-     *           performing the search.
+     *         * Combine the scores of the keys and of the values (i.e. texts):
+     *           for now, the texts are only searched when no key matches.
      *
+     * @param index the index over the keys of the input JSON object.
      * @param data the input JSON object.
-     * @param keywords keywords extracted from the query.
+     * @param keywords ids of the keywords extracted from the query, sorted and distinct.
      * @param depth the current depth (level of the JSON tree) of the search.
-     * @return best-matching" subtree (JSON object).
+     * @return best-matching" subtree (JSON object), or the value of the best-matching key
+     *         if it is not an object (e.g. the "Title" of a condition).
      */
-    private Object search(JSONObject data, Set<String> keywords, int depth) {
+    private static Object search(KeyIndex index, JSONObject data, int[] keywords, int depth) {
         // Base case: we are deep enough, so return.
     	// TODO: there may be use cases when it makes sense to get even more
     	//       detailed and investigate deeper levels of our data.
@@ -139,31 +701,18 @@ public class QuestionAnswerer {
         // General case: try to find the subtree whose key contains
         // the most words from the query. This is important to distinguish
         // e.g. "oesophageal cancer" from just "cancer".
-        JSONObject jsonData = (JSONObject) data;
-        int maxWords = 0;
-        JSONObject bestSubtree = null;
-        // Sort keys by length to start with simplest possible things.
-        // This is important e.g. not to go to "oesophageal cancer" when
-        // the query is just about cancer in general.
-        List<String> keysSortedByLength = new ArrayList<String>();
-        for (Object key : jsonData.keySet()) {
-        	keysSortedByLength.add((String) key);
-        }
-        Collections.sort(keysSortedByLength, new LengthComparator());
-        for (String key : keysSortedByLength) {
-            Set<String> keyPreprocessed = preprocess(key);
-            // Compute the intersection of two sets: keyPreprocessed and keywords
-            keyPreprocessed.retainAll(keywords);
-            if (keyPreprocessed.size() > maxWords) {
-            	maxWords = keyPreprocessed.size();
-            	bestSubtree = (JSONObject) jsonData.get(key);
-            }
-        }
-        if (maxWords > 0) {
+        // The inverted index only looks at the keys sharing some words with the query.
+        int best = index.bestMatch(keywords);
+        if (best >= 0) {
         	// We found the "best-matching" subtree, proceed recursively
-        	// NOTE: this may be not the best solution as there may be multiple
-        	//       "best-matching" subtrees anyway.
-            return search(bestSubtree, keywords, depth + 1);
+        	// NOTE: there may be multiple "best-matching" subtrees anyway,
+        	//       answer(query, k) returns them all.
+            Object value = index.value(best);
+            if (! (value instanceof JSONObject)) {
+                // A leaf, e.g. a title, so we cannot get any deeper
+                return value;
+            }
+            return search(index.child(best), (JSONObject) value, keywords, depth + 1);
         } else {
 	        // The search is unsuccessful, return either null or the subtree,
         	// based on the current depth.
@@ -182,14 +731,9 @@ public class QuestionAnswerer {
      */
     public static void main(String[] args) throws FileNotFoundException, IOException, ParseException {
         QuestionAnswerer qa = new QuestionAnswerer(args[0], args[1]);
-        System.out.print(qa.answer(args[2]));
-    }
-}
-
-
-class LengthComparator implements java.util.Comparator<String> {
-
-    public int compare(String s1, String s2) {
-        return s1.length() - s2.length();
+        // NOTE: The default charset is the one System.out would print the reply with.
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()));
+        qa.answer(args[2], out);
+        out.flush();
     }
 }
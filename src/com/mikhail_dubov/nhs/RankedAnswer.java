@@ -0,0 +1,70 @@
+package com.mikhail_dubov.nhs;
+
+import org.json.simple.JSONAware;
+import org.json.simple.JSONObject;
+
+/**
+ * One of the answers to a query returned by QuestionAnswerer.answer(query, k):
+ * a node of the NHS data (a condition or one of its sections) together with its score.
+ *
+ * @author Mikhail Dubov
+ */
+public class RankedAnswer implements JSONAware {
+
+    private final String condition;
+    private final String section;
+    private final Object response;
+    private final double score;
+
+    RankedAnswer(String condition, String section, Object response, double score) {
+        this.condition = condition;
+        this.section = section;
+        this.response = response;
+        this.score = score;
+    }
+
+    /**
+     * @return The name of the condition, e.g. "Cancer".
+     */
+    public String getCondition() {
+        return this.condition;
+    }
+
+    /**
+     * @return The name of the section, e.g. "Symptoms", or null if the answer
+     *         is the whole condition.
+     */
+    public String getSection() {
+        return this.section;
+    }
+
+    /**
+     * @return The answer itself, i.e. the subtree of the NHS data (usually a JSON object).
+     */
+    public Object getResponse() {
+        return this.response;
+    }
+
+    /**
+     * @return The score of the answer, the higher the better. Scores are only comparable
+     *         between the answers to the same query.
+     */
+    public double getScore() {
+        return this.score;
+    }
+
+    @Override
+    public String toJSONString() {
+        JSONObject json = new JSONObject();
+        json.put("condition", this.condition);
+        json.put("section", this.section);
+        json.put("score", this.score);
+        json.put("response", this.response);
+        return json.toJSONString();
+    }
+
+    @Override
+    public String toString() {
+        return toJSONString();
+    }
+}
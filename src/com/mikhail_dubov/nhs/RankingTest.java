@@ -0,0 +1,68 @@
+package com.mikhail_dubov.nhs;
+
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class RankingTest {
+
+	/**
+	 * Checks that the best of the answers ranked by answer(query, k) is always the reply
+	 * of answer(query), and that the k best answers do not depend on k.
+	 */
+    public static void main(String[] args) throws FileNotFoundException, IOException, ParseException {
+        JSONObject data = (JSONObject) new JSONParser().parse(new FileReader("data/data.json"));
+        List<String> names = new ArrayList<String>();
+        for (Object condition : data.keySet()) {
+            names.add((String) condition);
+        }
+        Collections.sort(names);
+        List<String> queries = new ArrayList<String>(Arrays.asList(
+            "cancer", "What are the symptoms of cancer?", "treatments for allergy",
+            "itchy red rash after eating nuts", "diagnosis", "hello world", ""));
+        String[] prefixes = {"", "symptoms of ", "treatment for ", "what causes ",
+                             "complications of ", "diagnosing ", "living with "};
+        for (int i = 0; i < names.size(); i++) {
+            queries.add(prefixes[i % prefixes.length] + names.get(i));
+        }
+
+        QuestionAnswerer qa = new QuestionAnswerer("data/data.json", "data/stopwords.txt");
+        int failures = 0;
+        for (String query : queries) {
+            Object expected = qa.answer(query).get("response");
+            List<RankedAnswer> best = qa.answer(query, 1);
+            Object actual = best.isEmpty() ? null : best.get(0).getResponse();
+            if (actual != expected) {
+                System.out.println("FAILED: \"" + query + "\": the best ranked answer is "
+                                   + (best.isEmpty() ? null : best.get(0).getCondition() + " / "
+                                                               + best.get(0).getSection()));
+                failures++;
+            }
+            List<RankedAnswer> top10 = qa.answer(query, 10);
+            List<RankedAnswer> top100 = qa.answer(query, 100);
+            if (! top10.toString().equals(top100.subList(0, Math.min(10, top100.size())).toString())) {
+                System.out.println("FAILED: \"" + query + "\": the 10 best answers depend on k");
+                failures++;
+            }
+        }
+        RankedAnswer cancer = qa.answer("cancer", 1).get(0);
+        if (! "Cancer".equals(cancer.getCondition()) || cancer.getSection() != null) {
+            System.out.println("FAILED: \"cancer\": expected the whole Cancer condition, got "
+                               + cancer.getCondition() + " / " + cancer.getSection());
+            failures++;
+        }
+        System.out.println(queries.size() + " queries checked, " + failures + " failures");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+}
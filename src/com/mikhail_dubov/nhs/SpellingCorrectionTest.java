@@ -0,0 +1,56 @@
+package com.mikhail_dubov.nhs;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.json.simple.parser.ParseException;
+
+public class SpellingCorrectionTest {
+
+    // Queries with typos, and the same queries spelled correctly
+    private static final String[][] QUERIES = {
+        {"oesophagel cancer", "oesophageal cancer"},
+        {"What are the symptons of diabetis?", "What are the symptoms of diabetes?"},
+        {"pnemonia", "pneumonia"},
+        {"treatment for astma", "treatment for asthma"},
+        {"bronchitus", "bronchitis"},
+        {"chikenpox complications", "chickenpox complications"},
+        {"causes of alergies", "causes of allergies"},
+        {"diagnosing glaucomma", "diagnosing glaucoma"},
+    };
+
+	/**
+	 * Checks that the queries with a typo or two get the answers to the correct queries,
+	 * and that the terms that are too far from the vocabulary are left alone.
+	 */
+    public static void main(String[] args) throws FileNotFoundException, IOException, ParseException {
+        QuestionAnswerer qa = new QuestionAnswerer("data/data.json", "data/stopwords.txt");
+        QuestionAnswerer uncorrected = new QuestionAnswerer("data/data.json", "data/stopwords.txt",
+                                                            new AnswererOptions().setSpellingCorrection(false));
+        int failures = 0;
+        for (String[] queries : QUERIES) {
+            Object expected = qa.answer(queries[1]).get("response");
+            Object actual = qa.answer(queries[0]).get("response");
+            if (expected == null || actual != expected) {
+                System.out.println("FAILED: \"" + queries[0] + "\" is not answered like \"" + queries[1] + "\"");
+                failures++;
+            }
+            if (uncorrected.answer(queries[0]).get("response") == expected) {
+                System.out.println("FAILED: \"" + queries[0] + "\" is answered like \"" + queries[1]
+                                   + "\" without the spelling correction");
+                failures++;
+            }
+        }
+        for (String query : new String[] {"xqzwvb", "glorbination"}) {
+            if (qa.answer(query).get("response") != null) {
+                System.out.println("FAILED: \"" + query + "\" should get no answer");
+                failures++;
+            }
+        }
+        System.out.println(QUERIES.length + " misspelled queries checked, " + failures + " failures");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,252 @@
+package com.mikhail_dubov.nhs;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Corrects the typos in the (stemmed) query terms using the vocabulary of the keys,
+ * e.g. "sympton" -> "symptom" or "diabeti" -> "diabet".
+ *
+ * Follows the idea of SymSpell: all the strings obtained by deleting up to MAX_DISTANCE
+ * characters from the vocabulary terms are computed at load time, so that the candidates
+ * for a query term are found by looking up its own deletes, i.e. in a few binary searches
+ * instead of computing the edit distance to every term of the vocabulary.
+ *
+ * The deletes are only kept as hashes in sorted primitive arrays, as there are tens of
+ * thousands of them and the corrector gets built on every load: a hash collision only
+ * adds a candidate, whose distance to the query term gets checked anyway.
+ *
+ * @author Mikhail Dubov
+ */
+class SpellingCorrector {
+
+    // NOTE: deleteKeys() supports up to 2 deletes.
+    private static final int MAX_DISTANCE = 2;
+    // Shorter terms are never corrected, as almost any term is close to them
+    private static final int MIN_LENGTH = 4;
+    // The low bits of the keys of the deletes are left for the positions of the terms
+    private static final int POSITION_BITS = 24;
+    private static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+
+    private final String[] terms;
+    // Number of keys of the NHS data containing each term
+    private final int[] frequencies;
+    // Keys of the deletes of the terms (including the terms themselves), sorted and distinct,
+    // and the positions of the terms having each of them: deleteTerms[deleteStarts[i]]
+    // to deleteTerms[deleteStarts[i + 1] - 1] for deleteKeys[i]
+    private final long[] deleteKeys;
+    private final int[] deleteStarts;
+    private final int[] deleteTerms;
+
+    /**
+     * @param vocabulary The correct terms, with their frequencies.
+     */
+    SpellingCorrector(Map<String, Integer> vocabulary) {
+        this.terms = vocabulary.keySet().toArray(new String[vocabulary.size()]);
+        // Sort the terms, so that the corrections do not depend on the order of the map
+        Arrays.sort(this.terms);
+        if (this.terms.length > POSITION_MASK) {
+            throw new IllegalArgumentException("Too many terms: " + this.terms.length);
+        }
+        this.frequencies = new int[this.terms.length];
+        // Pair the key of every delete with the position of its term in a long,
+        // so that sorting the pairs groups the terms by delete
+        long[] pairs = new long[this.terms.length * 16];
+        int numPairs = 0;
+        for (int pos = 0; pos < this.terms.length; pos++) {
+            this.frequencies[pos] = vocabulary.get(this.terms[pos]);
+            // NOTE: The terms of any length get all their deletes: a query term is only
+            //       as close as its length allows, but it may be longer than the term.
+            long[] keys = deleteKeys(this.terms[pos], MAX_DISTANCE);
+            if (numPairs + keys.length > pairs.length) {
+                pairs = Arrays.copyOf(pairs, Math.max(pairs.length * 2, numPairs + keys.length));
+            }
+            for (long key : keys) {
+                pairs[numPairs++] = key | pos;
+            }
+        }
+        Arrays.sort(pairs, 0, numPairs);
+        int numKeys = 0;
+        for (int i = 0; i < numPairs; i++) {
+            if (i == 0 || (pairs[i] & ~POSITION_MASK) != (pairs[i - 1] & ~POSITION_MASK)) {
+                numKeys++;
+            }
+        }
+        this.deleteKeys = new long[numKeys];
+        this.deleteStarts = new int[numKeys + 1];
+        this.deleteTerms = new int[numPairs];
+        numKeys = 0;
+        for (int i = 0; i < numPairs; i++) {
+            long key = pairs[i] & ~POSITION_MASK;
+            if (i == 0 || key != this.deleteKeys[numKeys - 1]) {
+                this.deleteKeys[numKeys] = key;
+                this.deleteStarts[numKeys] = i;
+                numKeys++;
+            }
+            this.deleteTerms[i] = (int) (pairs[i] & POSITION_MASK);
+        }
+        this.deleteStarts[numKeys] = numPairs;
+    }
+
+    /**
+     * Builds the corrector for the terms of the keys of the NHS data.
+     *
+     * @param conditionIndex The index over the conditions (with their sections) of the NHS data.
+     * @param keyBags Preprocessed keys (bags of words).
+     */
+    static SpellingCorrector build(KeyIndex conditionIndex, Map<String, Set<String>> keyBags) {
+        // NOTE: Section names are shared by many conditions, so we count the terms
+        //       in the keys of the tree rather than in the distinct keys.
+        Map<String, Integer> vocabulary = new HashMap<String, Integer>();
+        for (int condition = 0; condition < conditionIndex.size(); condition++) {
+            count(keyBags.get(conditionIndex.key(condition)), vocabulary);
+            KeyIndex sections = conditionIndex.child(condition);
+            for (int section = 0; sections != null && section < sections.size(); section++) {
+                count(keyBags.get(sections.key(section)), vocabulary);
+            }
+        }
+        return new SpellingCorrector(vocabulary);
+    }
+
+    private static void count(Set<String> terms, Map<String, Integer> vocabulary) {
+        for (String term : terms) {
+            Integer frequency = vocabulary.get(term);
+            vocabulary.put(term, (frequency == null) ? 1 : frequency + 1);
+        }
+    }
+
+    /**
+     * Finds the closest term of the vocabulary (in terms of the Damerau-Levenshtein distance),
+     * preferring the more frequent terms among the equally close ones.
+     *
+     * @param term The (stemmed) term to correct.
+     * @return The corrected term (the term itself if it is in the vocabulary),
+     *         or null if no term of the vocabulary is close enough.
+     */
+    String correct(String term) {
+        int maxDistance = maxDistance(term);
+        int best = -1;
+        int bestDistance = 0;
+        Set<Integer> seen = new HashSet<Integer>();
+        for (long key : deleteKeys(term, maxDistance)) {
+            int i = Arrays.binarySearch(this.deleteKeys, key);
+            if (i < 0) {
+                continue;
+            }
+            for (int j = this.deleteStarts[i]; j < this.deleteStarts[i + 1]; j++) {
+                int pos = this.deleteTerms[j];
+                if (! seen.add(pos)) {
+                    continue;
+                }
+                // Sharing a delete only bounds the distance, so it has to be checked
+                int distance = distance(term, this.terms[pos], maxDistance);
+                if (distance > maxDistance) {
+                    continue;
+                }
+                if (best < 0 || distance < bestDistance
+                        || (distance == bestDistance && isBetter(pos, best))) {
+                    best = pos;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return (best >= 0) ? this.terms[best] : null;
+    }
+
+    /**
+     * @return true if the term at pos should be preferred to the equally close term at other:
+     *         the more frequent term wins, then the one that comes first alphabetically.
+     */
+    private boolean isBetter(int pos, int other) {
+        if (this.frequencies[pos] != this.frequencies[other]) {
+            return this.frequencies[pos] > this.frequencies[other];
+        }
+        return pos < other;
+    }
+
+    private static int maxDistance(String term) {
+        if (term.length() < MIN_LENGTH) {
+            return 0;
+        }
+        return (term.length() < 7) ? 1 : MAX_DISTANCE;
+    }
+
+    /**
+     * @return The keys of all the strings obtained by deleting up to maxDistance (at most 2)
+     *         characters from the term, including the term itself, sorted and distinct.
+     */
+    private static long[] deleteKeys(String term, int maxDistance) {
+        int length = term.length();
+        long[] keys = new long[1 + length + length * (length - 1) / 2];
+        int numKeys = 0;
+        keys[numKeys++] = key(term, -1, -1);
+        for (int i = 0; maxDistance >= 1 && i < length; i++) {
+            keys[numKeys++] = key(term, i, -1);
+            for (int j = i + 1; maxDistance >= 2 && j < length; j++) {
+                keys[numKeys++] = key(term, i, j);
+            }
+        }
+        // Deleting either of two equal neighbouring characters gives the same string
+        Arrays.sort(keys, 0, numKeys);
+        int numDistinct = 0;
+        for (int i = 0; i < numKeys; i++) {
+            if (numDistinct == 0 || keys[i] != keys[numDistinct - 1]) {
+                keys[numDistinct++] = keys[i];
+            }
+        }
+        return Arrays.copyOf(keys, numDistinct);
+    }
+
+    /**
+     * @return The key of the string obtained by deleting the characters at the positions
+     *         skip1 and skip2 (-1 for none) from the term: a 64-bit hash of the string,
+     *         whose POSITION_BITS lowest bits are 0.
+     */
+    private static long key(String term, int skip1, int skip2) {
+        // FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < term.length(); i++) {
+            if (i != skip1 && i != skip2) {
+                hash = (hash ^ term.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        // Spread the entropy over the high bits (the finalizer of MurmurHash3)
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash & ~POSITION_MASK;
+    }
+
+    /**
+     * Computes the Damerau-Levenshtein distance (optimal string alignment variant)
+     * between two strings.
+     *
+     * @return The distance, or maxDistance + 1 if it is greater than maxDistance.
+     */
+    private static int distance(String s1, String s2, int maxDistance) {
+        if (Math.abs(s1.length() - s2.length()) > maxDistance) {
+            return maxDistance + 1;
+        }
+        int[][] d = new int[s1.length() + 1][s2.length() + 1];
+        for (int i = 0; i <= s1.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= s2.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= s1.length(); i++) {
+            for (int j = 1; j <= s2.length(); j++) {
+                int cost = (s1.charAt(i - 1) == s2.charAt(j - 1)) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+                if (i > 1 && j > 1 && s1.charAt(i - 1) == s2.charAt(j - 2)
+                        && s1.charAt(i - 2) == s2.charAt(j - 1)) {
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + cost);
+                }
+            }
+        }
+        return Math.min(d[s1.length()][s2.length()], maxDistance + 1);
+    }
+}
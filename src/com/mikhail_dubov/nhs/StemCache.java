@@ -0,0 +1,86 @@
+package com.mikhail_dubov.nhs;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.mikhail_dubov.nhs.lib.Stemmer;
+
+/**
+ * Bounded cache mapping words to their stems, shared by all the threads.
+ *
+ * The vocabulary of the queries and the keys is small, so most words get stemmed
+ * over and over again; the cache makes this a single hash lookup.
+ *
+ * @author Mikhail Dubov
+ */
+public class StemCache extends BoundedCache<String> {
+
+    // Stemmers not in use at the moment: a Stemmer is not thread-safe, but its buffer
+    // can be reused for any number of words.
+    // NOTE: They are not kept per thread, as the server may run every request
+    //       on a new (virtual) thread.
+    private final AtomicReferenceArray<Stemmer> stemmers =
+        new AtomicReferenceArray<Stemmer>(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * @param maxSize Maximum number of cached words (0 disables the caching).
+     * @param policy Eviction policy to use when the cache is full.
+     */
+    public StemCache(int maxSize, EvictionPolicy policy) {
+        super(maxSize, policy);
+    }
+
+    /**
+     * Stems the word, looking it up in the cache first.
+     *
+     * @param word The word to stem (already lowercased).
+     * @return The stem of the word.
+     */
+    public String stem(String word) {
+        String stem = get(word);
+        if (stem == null) {
+            // NOTE: Two threads may stem the same word at the same time, which is harmless.
+            Stemmer stemmer = acquireStemmer();
+            int length = stemmer.stem((CharSequence) word);
+            char[] buffer = stemmer.getResultBuffer();
+            int offset = stemmer.getResultOffset();
+            // Many words are their own stems (e.g. "cancer"), they need no new String
+            stem = isWord(word, buffer, offset, length) ? word : new String(buffer, offset, length);
+            releaseStemmer(stemmer);
+            put(word, stem);
+        }
+        return stem;
+    }
+
+    private Stemmer acquireStemmer() {
+        for (int i = 0; i < this.stemmers.length(); i++) {
+            Stemmer stemmer = this.stemmers.getAndSet(i, null);
+            if (stemmer != null) {
+                return stemmer;
+            }
+        }
+        return new Stemmer();
+    }
+
+    private void releaseStemmer(Stemmer stemmer) {
+        for (int i = 0; i < this.stemmers.length(); i++) {
+            if (this.stemmers.compareAndSet(i, null, stemmer)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if the characters buffer[offset..offset+length) are those of the word.
+     */
+    private static boolean isWord(String word, char[] buffer, int offset, int length) {
+        if (word.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (word.charAt(i) != buffer[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
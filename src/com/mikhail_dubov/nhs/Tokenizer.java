@@ -0,0 +1,21 @@
+package com.mikhail_dubov.nhs;
+
+import java.util.List;
+
+/**
+ * Splits a string into tokens, following the conventions of the Penn Treebank tokenizer
+ * used originally: in particular, round brackets are returned as "-LRB-" / "-RRB-"
+ * tokens, so that the text in brackets can be skipped.
+ *
+ * Implementations must be thread-safe.
+ *
+ * @author Mikhail Dubov
+ */
+public interface Tokenizer {
+
+    /**
+     * @param str The input string (already lowercased).
+     * @return The list of tokens.
+     */
+    List<String> tokenize(String str);
+}
@@ -0,0 +1,55 @@
+package com.mikhail_dubov.nhs;
+
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class TokenizerTest {
+
+	/**
+	 * Checks that FastTokenizer and CoreNlpTokenizer produce identical bags of words
+	 * for every key in the NHS data.
+	 */
+    public static void main(String[] args) throws FileNotFoundException, IOException, ParseException {
+        JSONObject data = (JSONObject) new JSONParser().parse(new FileReader("data/data.json"));
+        Set<String> stopwords = Preprocessor.loadStopwords("data/stopwords.txt");
+        Preprocessor ptb = new Preprocessor(stopwords, new CoreNlpTokenizer(),
+                                            new StemCache(0, BoundedCache.EvictionPolicy.LRU));
+        Preprocessor fast = new Preprocessor(stopwords, new FastTokenizer(),
+                                             new StemCache(0, BoundedCache.EvictionPolicy.LRU));
+        List<String> keys = new ArrayList<String>();
+        collectKeys(data, keys);
+        int failures = 0;
+        for (String key : keys) {
+            Set<String> expected = ptb.bagOfWords(key);
+            Set<String> actual = fast.bagOfWords(key);
+            if (! expected.equals(actual)) {
+                System.out.println("FAILED: \"" + key + "\": expected " + expected + ", got " + actual);
+                failures++;
+            }
+        }
+        System.out.println(keys.size() + " keys checked, " + failures + " failures");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void collectKeys(JSONObject data, List<String> keys) {
+        for (Object entry : data.entrySet()) {
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) entry;
+            keys.add((String) e.getKey());
+            if (e.getValue() instanceof JSONObject) {
+                collectKeys((JSONObject) e.getValue(), keys);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.mikhail_dubov.nhs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dense integer ids of all the (stemmed) terms of the NHS data, i.e. of the keys and of the texts.
+ *
+ * The indexes store the terms as ids, and a query is mapped to ids only once, so the search
+ * itself only compares ints instead of hashing Strings. The terms are only added while
+ * the indexes are being built.
+ *
+ * @author Mikhail Dubov
+ */
+class Vocabulary {
+
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private final List<String> terms = new ArrayList<String>();
+
+    /**
+     * Adds the new terms to the vocabulary. They get the next ids in alphabetical order,
+     * so that the ids do not depend on the order of the collection.
+     *
+     * @param terms The terms to add (the already known ones are ignored).
+     */
+    void addAll(Collection<String> terms) {
+        List<String> newTerms = new ArrayList<String>();
+        for (String term : terms) {
+            if (! this.ids.containsKey(term)) {
+                newTerms.add(term);
+            }
+        }
+        Collections.sort(newTerms);
+        for (String term : newTerms) {
+            if (! this.ids.containsKey(term)) {
+                this.ids.put(term, this.terms.size());
+                this.terms.add(term);
+            }
+        }
+    }
+
+    /**
+     * @return The id of the term, or -1 if the term does not appear in the NHS data.
+     */
+    int id(String term) {
+        Integer id = this.ids.get(term);
+        return (id != null) ? id : -1;
+    }
+
+    /**
+     * @return The distinct ids of the known terms, sorted.
+     */
+    int[] ids(Collection<String> terms) {
+        int[] ids = new int[terms.size()];
+        int numIds = 0;
+        for (String term : terms) {
+            int id = id(term);
+            if (id >= 0) {
+                ids[numIds++] = id;
+            }
+        }
+        return sortedDistinct(ids, numIds);
+    }
+
+    /**
+     * Sorts the first length values of the array and removes the repeated values, in place.
+     *
+     * @return The distinct values, sorted.
+     */
+    static int[] sortedDistinct(int[] values, int length) {
+        Arrays.sort(values, 0, length);
+        int numDistinct = 0;
+        for (int i = 0; i < length; i++) {
+            if (numDistinct == 0 || values[i] != values[numDistinct - 1]) {
+                values[numDistinct++] = values[i];
+            }
+        }
+        return (numDistinct == values.length) ? values : Arrays.copyOf(values, numDistinct);
+    }
+
+    String term(int id) {
+        return this.terms.get(id);
+    }
+
+    /**
+     * @return Number of terms, i.e. the next id.
+     */
+    int size() {
+        return this.terms.size();
+    }
+
+    /**
+     * @return Number of common values of two sorted arrays of distinct values.
+     */
+    static int countCommon(int[] array1, int[] array2) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < array1.length && j < array2.length) {
+            if (array1[i] < array2[j]) {
+                i++;
+            } else if (array1[i] > array2[j]) {
+                j++;
+            } else {
+                count++;
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The values of the first sorted array of distinct values that are not in the second one.
+     */
+    static int[] difference(int[] array1, int[] array2) {
+        int[] values = new int[array1.length];
+        int length = 0;
+        int j = 0;
+        for (int value : array1) {
+            while (j < array2.length && array2[j] < value) {
+                j++;
+            }
+            if (j == array2.length || array2[j] != value) {
+                values[length++] = value;
+            }
+        }
+        return (length == values.length) ? values : Arrays.copyOf(values, length);
+    }
+}
@@ -47,6 +47,15 @@ public class Stemmer {
     b[i++] = ch;
   }
 
+  /* ensureCapacity(n) makes sure a word of n characters fits into b,
+     growing it at most once. */
+
+  private void ensureCapacity(int n) {
+    if (b.length < n) {
+      b = new char[n + INC];
+    }
+  }
+
 
   /**
    * After a word has been stemmed, it can be retrieved by toString(),
@@ -58,6 +67,29 @@ public class Stemmer {
     return new String(b, 0, i_end);
   }
 
+  /**
+   * Returns a reference to the internal buffer holding the result of the last
+   * stemming, starting at getResultOffset().  The buffer is reused (and
+   * overwritten) by the following calls to stem().
+   */
+  public char[] getResultBuffer() {
+    return b;
+  }
+
+  /**
+   * Returns the offset of the result of the last stemming in getResultBuffer().
+   */
+  public int getResultOffset() {
+    return 0;
+  }
+
+  /**
+   * Returns the length of the result of the last stemming.
+   */
+  public int getResultLength() {
+    return i_end;
+  }
+
 
   /* cons(i) is true <=> b[i] is a consonant. */
   private final boolean cons(int i) {
@@ -564,12 +596,46 @@ public class Stemmer {
    */
 
   public String stem(String s) {
-    char[] characters = s.toCharArray();
-    for (char character : characters) {
-      add(character);
+    stem((CharSequence) s);
+    return toString();
+  }
+
+  /**
+   * Stems <code>s</code> without allocating anything (except when the word
+   * is longer than any word seen before).  The result can be retrieved with
+   * getResultBuffer()/getResultOffset()/getResultLength().
+   *
+   * @return the length of the stemmed word.
+   */
+
+  public int stem(CharSequence s) {
+    int length = s.length();
+    ensureCapacity(length);
+    if (s instanceof String) {
+      ((String) s).getChars(0, length, b, 0);
+    } else {
+      for (int c = 0; c < length; c++) {
+        b[c] = s.charAt(c);
+      }
     }
+    i = length;
     stem();
-    return toString();
+    return i_end;
+  }
+
+  /**
+   * Stems the word <code>word[offset..offset+length)</code> the same way
+   * as stem(CharSequence) does.
+   *
+   * @return the length of the stemmed word.
+   */
+
+  public int stem(char[] word, int offset, int length) {
+    ensureCapacity(length);
+    System.arraycopy(word, offset, b, 0, length);
+    i = length;
+    stem();
+    return i_end;
   }
 
   /**